@@ -0,0 +1,41 @@
+package be.thomaswinters.similarreplacer;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures filling a word replacer with the context words of a few indexed context lines, and building the
+ * replacement candidates of all its tag sets.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+public class BagConstructionBenchmark {
+    @Param({"1", "3", "10"})
+    public int numberOfContextLines;
+
+    private int line;
+
+    @Benchmark
+    public SimilarWordReplacer addContextLines(BenchmarkCorpus corpus) {
+        ContextIndex index = corpus.getGenerator().getContextIndex();
+        SimilarWordReplacer replacer = new SimilarWordReplacer();
+        for (int i = 0; i < numberOfContextLines; i++) {
+            index.addLineTo(line++ % index.getNumberOfLines(), replacer);
+        }
+        return replacer;
+    }
+
+    @Benchmark
+    public void addContextLinesAndSortCandidates(BenchmarkCorpus corpus, Blackhole blackhole) {
+        SimilarWordReplacer replacer = addContextLines(corpus);
+        IWordFrequencies wordFrequencies = corpus.getGenerator().getWordFrequencies();
+        for (int tagSetId = 0; tagSetId < TagSets.size(); tagSetId++) {
+            if (replacer.getReplaceableSize(tagSetId) > 0) {
+                blackhole.consume(replacer.getReplacementCandidates(tagSetId).getSortedWords(wordFrequencies));
+            }
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package be.thomaswinters.similarreplacer;
+
+import com.google.common.base.Charsets;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.List;
+
+/**
+ * Synthetic Dutch corpus shared by all benchmarks, together with a generator using it both as templates and as
+ * context. The corpus is bundled as a resource, such that every run measures the same input.
+ */
+@State(Scope.Benchmark)
+public class BenchmarkCorpus {
+    private static final String CORPUS_RESOURCE = "benchmark-corpus.json";
+
+    private List<String> lines;
+    private DynamicTemplateGenerator generator;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        lines = load();
+        generator = new DynamicTemplateGenerator(lines, lines);
+    }
+
+    public static List<String> load() throws IOException {
+        try (Reader reader = new InputStreamReader(
+                BenchmarkCorpus.class.getClassLoader().getResourceAsStream(CORPUS_RESOURCE), Charsets.UTF_8)) {
+            return JsonCorpusReader.readAll(reader);
+        }
+    }
+
+    /**
+     * @return the line at the given index, wrapping around the corpus
+     */
+    public String getLine(int index) {
+        return lines.get(Math.floorMod(index, lines.size()));
+    }
+
+    public List<String> getLines() {
+        return lines;
+    }
+
+    public DynamicTemplateGenerator getGenerator() {
+        return generator;
+    }
+}
@@ -0,0 +1,64 @@
+package be.thomaswinters.similarreplacer;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures generating end to end: a single generation of a template, and the throughput of generating batches of
+ * lines on multiple threads the way the executor does, including the novelty check against the corpus.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+public class GenerationBenchmark {
+    private static final int NUMBER_OF_CONTEXT_LINES = 3;
+    private static final int BATCH_SIZE = 64;
+    private static final int MAX_TRIALS = 100;
+
+    @Param({"1", "4"})
+    public int parallelism;
+
+    private final Random random = new Random(0);
+    private int index;
+    private ParallelBatchGenerator batchGenerator;
+    private INoveltyFilter noveltyFilter;
+
+    @Setup(Level.Trial)
+    public void setUp(BenchmarkCorpus corpus) {
+        batchGenerator = new ParallelBatchGenerator(parallelism, 0);
+        noveltyFilter = new ExactNoveltyFilter(corpus.getLines());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        batchGenerator.close();
+    }
+
+    @Benchmark
+    public Optional<String> generate(BenchmarkCorpus corpus) {
+        return corpus.getGenerator().generate(corpus.getLine(index++), NUMBER_OF_CONTEXT_LINES, false, random);
+    }
+
+    /**
+     * Generates a batch of novel lines, with one operation being the whole batch
+     */
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public List<Optional<String>> generateBatch(BenchmarkCorpus corpus) {
+        List<String> templates = corpus.getLines().subList(0, BATCH_SIZE);
+        DynamicTemplateGenerator generator = corpus.getGenerator();
+        return batchGenerator.generate(templates, index++ * (long) BATCH_SIZE, (template, lineRandom) -> {
+            for (int trial = 0; trial < MAX_TRIALS; trial++) {
+                Optional<String> generated = generator.generate(template, NUMBER_OF_CONTEXT_LINES, false, lineRandom);
+                if (generated.isPresent() && noveltyFilter.isNovel(generated.get())) {
+                    return generated;
+                }
+            }
+            return Optional.<String>empty();
+        });
+    }
+}
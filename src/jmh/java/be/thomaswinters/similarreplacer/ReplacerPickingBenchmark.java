@@ -0,0 +1,70 @@
+package be.thomaswinters.similarreplacer;
+
+import be.thomaswinters.replacement.Replacer;
+import be.thomaswinters.replacement.Replacers;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures picking replacements for the tokens of a template from a fixed set of context words, and applying the
+ * picked replacements to the template.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+public class ReplacerPickingBenchmark {
+    private static final int NUMBER_OF_CONTEXT_LINES = 3;
+
+    private final Random random = new Random(0);
+    private int index;
+    private SimilarWordReplacer replacer;
+    private IReplacementPicker closestPicker;
+    private IReplacementPicker randomPicker;
+    private String template;
+    private List<Replacer> replacers;
+    private AnalysedTemplate analysedTemplate;
+    private List<WordReplacement> replacements;
+
+    @Setup(Level.Iteration)
+    public void setUp(BenchmarkCorpus corpus) {
+        DynamicTemplateGenerator generator = corpus.getGenerator();
+        replacer = new SimilarWordReplacer(ReplacementRules.DUTCH, generator.getTemplateAnalysisCache());
+        for (int line = 0; line < NUMBER_OF_CONTEXT_LINES; line++) {
+            generator.getContextIndex().addLineTo(line, replacer);
+        }
+        closestPicker = new DynamicTemplateGenerator.ClosestWordReplacementPicker(
+                generator.getWordFrequencies());
+        randomPicker = new RandomReplacementPicker();
+        template = corpus.getLine(0);
+        replacers = replacer.calculatePossibleReplacements(template, closestPicker, random);
+        analysedTemplate = replacer.analyseTemplate(template);
+        replacements = replacer.pickReplacements(replacer.getReplaceableTaggedTokens(analysedTemplate),
+                closestPicker, random);
+    }
+
+    @Benchmark
+    public List<Replacer> pickClosestReplacements(BenchmarkCorpus corpus) {
+        return replacer.calculatePossibleReplacements(corpus.getLine(index++), closestPicker, random);
+    }
+
+    @Benchmark
+    public List<Replacer> pickRandomReplacements(BenchmarkCorpus corpus) {
+        return replacer.calculatePossibleReplacements(corpus.getLine(index++), randomPicker, random);
+    }
+
+    @Benchmark
+    public String replace() {
+        return new Replacers(replacers).replace(template);
+    }
+
+    /**
+     * Replaces using the word positions of the analysed template in a single pass, as the generator does
+     */
+    @Benchmark
+    public String replaceAnalysed() {
+        return analysedTemplate.replace(replacements);
+    }
+}
@@ -0,0 +1,48 @@
+package be.thomaswinters.similarreplacer;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures analysing lines with LanguageTool: tagging context lines, and finding the replaceable tokens of a template
+ * with and without the template analysis cache.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+public class TaggingBenchmark {
+    private int index;
+    private SimilarWordReplacer contextReplacer;
+    private SimilarWordReplacer cachedReplacer;
+
+    @Setup(Level.Iteration)
+    public void setUp(BenchmarkCorpus corpus) throws IOException {
+        contextReplacer = new SimilarWordReplacer();
+        contextReplacer.addContextWords(corpus.getLines().subList(0, 50));
+        cachedReplacer = new SimilarWordReplacer(ReplacementRules.DUTCH, new TemplateAnalysisCache());
+        cachedReplacer.addContextWords(corpus.getLines().subList(0, 50));
+    }
+
+    @Benchmark
+    public SimilarWordReplacer tagContextLine(BenchmarkCorpus corpus) throws IOException {
+        SimilarWordReplacer replacer = new SimilarWordReplacer();
+        replacer.addContextWords(corpus.getLine(index++));
+        return replacer;
+    }
+
+    @Benchmark
+    public List<TaggedToken> analyseTemplate(BenchmarkCorpus corpus) {
+        return contextReplacer.getReplaceableTaggedTokens(corpus.getLine(index++));
+    }
+
+    /**
+     * Analyses the same few templates over and over, as happens when retrying a template
+     */
+    @Benchmark
+    public List<TaggedToken> analyseTemplateCached(BenchmarkCorpus corpus) {
+        return cachedReplacer.getReplaceableTaggedTokens(corpus.getLine(index++ % 8));
+    }
+}
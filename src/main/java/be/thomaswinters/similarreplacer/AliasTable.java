@@ -0,0 +1,217 @@
+package be.thomaswinters.similarreplacer;
+
+import be.thomaswinters.markov.model.data.bags.Bag;
+import com.google.common.collect.Multiset;
+
+import java.util.*;
+
+/**
+ * Samples the distinct words of a bag in constant time, with a probability proportional to their count in the bag,
+ * using Vose's alias method. The table is built once in linear time, after which every draw takes one random index
+ * and one random double, regardless of the number of words.
+ * <p>
+ * A temperature reshapes the distribution: every count is raised to the power 1/temperature, such that a temperature
+ * of 1 samples proportionally to the counts, higher temperatures flatten the distribution towards picking every
+ * distinct word equally often, and lower temperatures favour the most frequent words.
+ */
+public class AliasTable {
+    /**
+     * Above this probability of drawing an excluded word, a separate table without the word is used instead of
+     * drawing again, such that a draw never needs more than two tries on average
+     */
+    private static final double MAX_REJECTION_PROBABILITY = 0.5;
+
+    private final String[] words;
+    private final double[] weights;
+    private final double totalWeight;
+    private final double[] probabilities;
+    private final int[] aliases;
+    private final Map<String, Integer> indices;
+
+    /**
+     * Table without the word that has a probability above {@link #MAX_REJECTION_PROBABILITY}, if any. There can be at
+     * most one such word, so it is the only exclusion that needs a table of its own.
+     */
+    private AliasTable dominantExcluded;
+
+    /*-********************************************-*
+     *  Construction
+     *-********************************************-*/
+
+    /**
+     * @param words   distinct words to sample from
+     * @param weights non-negative weight of every word, of which at least one is positive if there are words
+     */
+    public AliasTable(String[] words, double[] weights) {
+        if (words.length != weights.length) {
+            throw new IllegalArgumentException("Got " + words.length + " words but " + weights.length + " weights");
+        }
+        this.words = words;
+        this.weights = weights;
+        this.totalWeight = Arrays.stream(weights).sum();
+        if (words.length > 0 && !(totalWeight > 0)) {
+            throw new IllegalArgumentException("The total weight should be positive, but was " + totalWeight);
+        }
+        this.probabilities = new double[words.length];
+        this.aliases = new int[words.length];
+        this.indices = new HashMap<>(words.length * 2);
+        for (int i = 0; i < words.length; i++) {
+            indices.put(words[i], i);
+        }
+        buildTable();
+    }
+
+    /**
+     * Creates a table sampling proportionally to the counts of the words in the bag
+     */
+    public static AliasTable fromBag(Bag<String> bag) {
+        return fromBag(bag, 1d);
+    }
+
+    /**
+     * @param temperature positive temperature, where 1 samples proportionally to the counts of the words in the bag
+     */
+    public static AliasTable fromBag(Bag<String> bag, double temperature) {
+        if (!(temperature > 0)) {
+            throw new IllegalArgumentException("Temperature should be positive, but was " + temperature);
+        }
+        Multiset<String> multiset = bag.toMultiset();
+        String[] words = new LinkedHashSet<>(multiset).toArray(new String[0]);
+        int maxCount = 0;
+        for (String word : words) {
+            maxCount = Math.max(maxCount, multiset.count(word));
+        }
+
+        // Scale by the highest count first, such that low temperatures do not overflow, and keep every word possible
+        double[] weights = new double[words.length];
+        for (int i = 0; i < words.length; i++) {
+            double relativeCount = multiset.count(words[i]) / (double) maxCount;
+            weights[i] = temperature == 1d
+                    ? relativeCount
+                    : Math.max(Math.pow(relativeCount, 1d / temperature), Double.MIN_NORMAL);
+        }
+        return new AliasTable(words, weights);
+    }
+
+    /**
+     * Vose's alias method: splits the probabilities in columns of equal height, where every column holds the part of
+     * one word that fits in it, topped up with a part of a word that has more than its share
+     */
+    private void buildTable() {
+        int n = words.length;
+        double[] scaled = new double[n];
+        int[] small = new int[n];
+        int[] large = new int[n];
+        int smallSize = 0;
+        int largeSize = 0;
+        for (int i = 0; i < n; i++) {
+            scaled[i] = weights[i] * n / totalWeight;
+            if (scaled[i] < 1d) {
+                small[smallSize++] = i;
+            } else {
+                large[largeSize++] = i;
+            }
+        }
+
+        while (smallSize > 0 && largeSize > 0) {
+            int less = small[--smallSize];
+            int more = large[--largeSize];
+            probabilities[less] = scaled[less];
+            aliases[less] = more;
+            scaled[more] = (scaled[more] + scaled[less]) - 1d;
+            if (scaled[more] < 1d) {
+                small[smallSize++] = more;
+            } else {
+                large[largeSize++] = more;
+            }
+        }
+
+        // Remaining columns are full, up to rounding errors
+        while (largeSize > 0) {
+            probabilities[large[--largeSize]] = 1d;
+        }
+        while (smallSize > 0) {
+            probabilities[small[--smallSize]] = 1d;
+        }
+    }
+
+    /*-********************************************-*
+     *  SAMPLING
+     *-********************************************-*/
+
+    /**
+     * @return a random word, or null if the table is empty
+     */
+    public String sample(Random random) {
+        if (words.length == 0) {
+            return null;
+        }
+        return words[sampleIndex(random)];
+    }
+
+    /**
+     * Samples a word other than the given word, with the same relative probabilities as the other words have in this
+     * table
+     *
+     * @param excluded word that should not be returned, or null
+     * @return a random word other than the excluded word, or null if there is no such word
+     */
+    public String sample(Random random, String excluded) {
+        Integer excludedIndex = excluded == null ? null : indices.get(excluded);
+        if (excludedIndex == null) {
+            return sample(random);
+        }
+        double excludedWeight = weights[excludedIndex];
+        if (excludedWeight >= totalWeight) {
+            return null;
+        }
+        if (excludedWeight / totalWeight > MAX_REJECTION_PROBABILITY) {
+            return getDominantExcluded(excludedIndex).sample(random);
+        }
+
+        int index;
+        do {
+            index = sampleIndex(random);
+        } while (index == excludedIndex);
+        return words[index];
+    }
+
+    private int sampleIndex(Random random) {
+        int column = random.nextInt(words.length);
+        return random.nextDouble() < probabilities[column] ? column : aliases[column];
+    }
+
+    private AliasTable getDominantExcluded(int excludedIndex) {
+        AliasTable table = dominantExcluded;
+        if (table == null) {
+            String[] otherWords = new String[words.length - 1];
+            double[] otherWeights = new double[words.length - 1];
+            for (int i = 0, j = 0; i < words.length; i++) {
+                if (i != excludedIndex) {
+                    otherWords[j] = words[i];
+                    otherWeights[j] = weights[i];
+                    j++;
+                }
+            }
+            table = new AliasTable(otherWords, otherWeights);
+            dominantExcluded = table;
+        }
+        return table;
+    }
+
+    /*-********************************************-*
+     *  ACCESS
+     *-********************************************-*/
+
+    public int size() {
+        return words.length;
+    }
+
+    /**
+     * @return the probability of sampling the given word
+     */
+    public double getProbability(String word) {
+        Integer index = indices.get(word);
+        return index == null ? 0d : weights[index] / totalWeight;
+    }
+}
@@ -0,0 +1,116 @@
+package be.thomaswinters.similarreplacer;
+
+import be.thomaswinters.replacement.Replacers;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Dynamic template analysed by LanguageTool: its tokens that are allowed to be replaced, and the position of all its
+ * words. The positions allow applying any number of word replacements in a single pass over the template, looking up
+ * every word in a hash map instead of searching the template once per replacement.
+ */
+public class AnalysedTemplate {
+    /**
+     * Buffers reused by every replacement on the same thread
+     */
+    private static final ThreadLocal<StringBuilder> builders = ThreadLocal.withInitial(StringBuilder::new);
+    private static final ThreadLocal<Map<String, String>> replacementMaps = ThreadLocal.withInitial(HashMap::new);
+
+    private final String template;
+    private final List<TaggedToken> replaceableTokens;
+    private final String[] words;
+    private final int[] wordStarts;
+    /**
+     * Whether every word is found in the template at its position, such that replacements can be applied in a single
+     * pass. If the tokenizer reported positions that do not match the template, whole words are replaced instead.
+     */
+    private final boolean positionsMatch;
+
+    /**
+     * @param words      all non-whitespace tokens of the template, in order
+     * @param wordStarts position of each of the words in the template
+     */
+    AnalysedTemplate(String template, List<TaggedToken> replaceableTokens, String[] words, int[] wordStarts) {
+        this.template = template;
+        this.replaceableTokens = Collections.unmodifiableList(replaceableTokens);
+        this.words = words;
+        this.wordStarts = wordStarts;
+        this.positionsMatch = matchesPositions(template, words, wordStarts);
+    }
+
+    private static boolean matchesPositions(String template, String[] words, int[] wordStarts) {
+        if (words.length != wordStarts.length) {
+            return false;
+        }
+        int previousEnd = 0;
+        for (int i = 0; i < words.length; i++) {
+            if (wordStarts[i] < previousEnd || !template.regionMatches(wordStarts[i], words[i], 0, words[i].length())) {
+                return false;
+            }
+            previousEnd = wordStarts[i] + words[i].length();
+        }
+        return true;
+    }
+
+    public String getTemplate() {
+        return template;
+    }
+
+    /**
+     * @return the tokens that are allowed to be replaced, regardless of the context words
+     */
+    public List<TaggedToken> getReplaceableTokens() {
+        return replaceableTokens;
+    }
+
+    /*-********************************************-*
+     *  REPLACING
+     *-********************************************-*/
+
+    /**
+     * Replaces every occurrence of a word of the given replacements by its replacement. If the same word has
+     * multiple replacements, the first one is used. Replacements are not replaced again.
+     */
+    public String replace(Collection<WordReplacement> replacements) {
+        if (replacements.isEmpty()) {
+            return template;
+        }
+        if (!positionsMatch) {
+            return replaceWholeWords(replacements);
+        }
+        Map<String, String> replacementMap = replacementMaps.get();
+        replacementMap.clear();
+        for (WordReplacement replacement : replacements) {
+            replacementMap.putIfAbsent(replacement.getWord(), replacement.getReplacement());
+        }
+
+        StringBuilder builder = builders.get();
+        builder.setLength(0);
+        int copiedUntil = 0;
+        for (int i = 0; i < words.length; i++) {
+            String replacement = replacementMap.get(words[i]);
+            if (replacement != null) {
+                builder.append(template, copiedUntil, wordStarts[i]).append(replacement);
+                copiedUntil = wordStarts[i] + words[i].length();
+            }
+        }
+        builder.append(template, copiedUntil, template.length());
+        replacementMap.clear();
+        return builder.toString();
+    }
+
+    /**
+     * Replaces the words by searching them in the template, one replacement after another
+     */
+    private String replaceWholeWords(Collection<WordReplacement> replacements) {
+        Map<String, WordReplacement> firstReplacements = new LinkedHashMap<>();
+        for (WordReplacement replacement : replacements) {
+            firstReplacements.putIfAbsent(replacement.getWord(), replacement);
+        }
+        return new Replacers(firstReplacements.values().stream()
+                .map(WordReplacement::toReplacer)
+                .collect(Collectors.toList()))
+                .replace(template);
+    }
+}
@@ -0,0 +1,91 @@
+package be.thomaswinters.similarreplacer;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Immutable list of the elements of a base list followed by appended elements. Appending returns a new list that
+ * shares the array of appended elements with this list, and only writes behind the elements this list sees, so it
+ * takes time in the number of new elements instead of copying the whole list. Only appending to the latest list of a
+ * chain of appends shares the array; appending to an older list copies its appended elements first.
+ */
+class AppendOnlyList<E> extends AbstractList<E> implements RandomAccess {
+    private final List<E> base;
+    private final Tail tail;
+    /**
+     * Array of the tail at the time this list was created, of which only the first elements belong to this list
+     */
+    private final Object[] appended;
+    private final int numberOfAppended;
+
+    private AppendOnlyList(List<E> base, Tail tail, Object[] appended, int numberOfAppended) {
+        this.base = base;
+        this.tail = tail;
+        this.appended = appended;
+        this.numberOfAppended = numberOfAppended;
+    }
+
+    /**
+     * @param base list to append to, which should not change anymore
+     */
+    static <E> AppendOnlyList<E> of(List<E> base) {
+        if (base instanceof AppendOnlyList) {
+            return (AppendOnlyList<E>) base;
+        }
+        return new AppendOnlyList<>(base, new Tail(), new Object[0], 0);
+    }
+
+    /**
+     * @return a list containing the elements of this list followed by the given elements
+     */
+    AppendOnlyList<E> append(Collection<? extends E> elements) {
+        synchronized (tail) {
+            Tail target = tail;
+            if (target.size != numberOfAppended) {
+                // A later list already appended to the shared tail, so this list gets a tail of its own
+                target = new Tail();
+                target.elements = Arrays.copyOf(appended, numberOfAppended);
+                target.size = numberOfAppended;
+            }
+            for (E element : elements) {
+                target.add(element);
+            }
+            return new AppendOnlyList<>(base, target, target.elements, target.size);
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public E get(int index) {
+        if (index < base.size()) {
+            return base.get(index);
+        }
+        if (index - base.size() >= numberOfAppended) {
+            throw new IndexOutOfBoundsException("Index " + index + " of a list of " + size());
+        }
+        return (E) appended[index - base.size()];
+    }
+
+    @Override
+    public int size() {
+        return base.size() + numberOfAppended;
+    }
+
+    /**
+     * Appended elements shared by a chain of lists, which is only written behind the elements of the latest list
+     */
+    private static final class Tail {
+        private Object[] elements = new Object[0];
+        private int size;
+
+        private void add(Object element) {
+            if (size == elements.length) {
+                elements = Arrays.copyOf(elements, Math.max(16, size * 2));
+            }
+            elements[size++] = element;
+        }
+    }
+}
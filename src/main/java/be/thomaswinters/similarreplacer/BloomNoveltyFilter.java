@@ -0,0 +1,33 @@
+package be.thomaswinters.similarreplacer;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+
+import java.util.Collection;
+
+/**
+ * Rejects texts that are equal to a line of the corpus, using a Bloom filter such that the corpus lines themselves do
+ * not have to be kept in memory. A copy of the corpus is never accepted, but a novel text is wrongly rejected with
+ * the given false positive probability.
+ */
+public class BloomNoveltyFilter implements INoveltyFilter {
+    private final BloomFilter<CharSequence> corpus;
+
+    public BloomNoveltyFilter(Iterable<String> corpus, int expectedNumberOfLines, double falsePositiveProbability) {
+        this.corpus = BloomFilter.create(Funnels.stringFunnel(Charsets.UTF_8), Math.max(1, expectedNumberOfLines),
+                falsePositiveProbability);
+        for (String line : corpus) {
+            this.corpus.put(line);
+        }
+    }
+
+    public BloomNoveltyFilter(Collection<String> corpus, double falsePositiveProbability) {
+        this(corpus, corpus.size(), falsePositiveProbability);
+    }
+
+    @Override
+    public boolean isNovel(String text) {
+        return !corpus.mightContain(text);
+    }
+}
@@ -0,0 +1,49 @@
+package be.thomaswinters.similarreplacer;
+
+import java.util.Collection;
+
+/**
+ * Set of words that can be queried ignoring case without lowercasing the queried word first, using open addressing
+ * over the lowercased words.
+ */
+class CaseInsensitiveWordSet {
+    private final String[] slots;
+
+    CaseInsensitiveWordSet(Collection<String> words) {
+        int capacity = Integer.highestOneBit(Math.max(1, words.size()) * 2 - 1) << 1;
+        this.slots = new String[capacity];
+        for (String word : words) {
+            String lowerCase = word.toLowerCase();
+            int slot = findSlot(lowerCase);
+            slots[slot] = lowerCase;
+        }
+    }
+
+    boolean contains(String word) {
+        return slots[findSlot(word)] != null;
+    }
+
+    /**
+     * @return the slot containing the given word, or the empty slot where it would be stored
+     */
+    private int findSlot(String word) {
+        int mask = slots.length - 1;
+        int slot = hash(word) & mask;
+        while (slots[slot] != null && !equalsIgnoreCase(slots[slot], word)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private static boolean equalsIgnoreCase(String lowerCase, String word) {
+        return lowerCase.length() == word.length() && lowerCase.regionMatches(true, 0, word, 0, word.length());
+    }
+
+    private static int hash(String word) {
+        int hash = 0;
+        for (int i = 0; i < word.length(); i++) {
+            hash = 31 * hash + Character.toLowerCase(word.charAt(i));
+        }
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,311 @@
+package be.thomaswinters.similarreplacer;
+
+import be.thomaswinters.markov.model.data.bags.Bag;
+import com.google.common.collect.LinkedHashMultiset;
+import com.google.common.collect.Multiset;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Bag of words storing every distinct word once, together with its count in a primitive array, instead of an object
+ * per occurrence. Words are identified by their int id in a {@link Vocabulary}, e.g. the word ids of a
+ * {@link ContextIndex}, so adding an occurrence neither hashes the word nor boxes anything. Occurrences are added and
+ * removed one at a time in logarithmic time, by keeping the counts in a Fenwick tree, which also finds the i-th element
+ * using its running totals. Every distinct word has a slot, and the elements are ordered by the slot of their word, so
+ * all occurrences of a word are next to each other. A word gets the most recently freed slot when it is added to the
+ * bag, or a new one after all other slots if no slot is free.
+ */
+public class CompactBag implements Bag<String> {
+    private static final int INITIAL_CAPACITY = 4;
+
+    /**
+     * Translates between words and the ids they are added to a bag with
+     */
+    public interface Vocabulary {
+        /**
+         * @return the id of the given word, or any id that is never added to a bag if the word has none
+         */
+        int getId(String word);
+
+        String getWord(int id);
+    }
+
+    private final Vocabulary vocabulary;
+    /**
+     * Slot of every word id in the bag
+     */
+    private final IntIntMap slots = new IntIntMap();
+    /**
+     * Word in every slot, or null if the slot is free
+     */
+    private String[] words = new String[INITIAL_CAPACITY];
+    private int[] counts = new int[INITIAL_CAPACITY];
+    /**
+     * Fenwick tree of the counts: element i (starting from 1) is the total count of the slots from
+     * i - {@link Integer#lowestOneBit(int)} (inclusive) up to i (exclusive)
+     */
+    private int[] tree = new int[INITIAL_CAPACITY + 1];
+    /**
+     * Number of slots that were ever used, of which the free ones are kept in a stack
+     */
+    private int numberOfSlots;
+    private int[] freeSlots = new int[INITIAL_CAPACITY];
+    private int numberOfFreeSlots;
+    private int amountOfElements;
+
+    public CompactBag(Vocabulary vocabulary) {
+        this.vocabulary = vocabulary;
+    }
+
+    /*-********************************************-*
+     *  UPDATING
+     *-********************************************-*/
+
+    /**
+     * Adds one occurrence of the word with the given id
+     */
+    public void add(int wordId) {
+        int slot = slots.get(wordId);
+        if (slot < 0) {
+            slot = allocateSlot();
+            words[slot] = vocabulary.getWord(wordId);
+            slots.put(wordId, slot);
+        }
+        counts[slot]++;
+        updateTree(slot, 1);
+        amountOfElements++;
+    }
+
+    /**
+     * Removes one occurrence of the word with the given id
+     *
+     * @return false if the bag did not contain the word
+     */
+    public boolean remove(int wordId) {
+        int slot = slots.get(wordId);
+        if (slot < 0) {
+            return false;
+        }
+        counts[slot]--;
+        updateTree(slot, -1);
+        amountOfElements--;
+        if (counts[slot] == 0) {
+            slots.remove(wordId);
+            words[slot] = null;
+            freeSlots[numberOfFreeSlots++] = slot;
+        }
+        return true;
+    }
+
+    private int allocateSlot() {
+        if (numberOfFreeSlots > 0) {
+            return freeSlots[--numberOfFreeSlots];
+        }
+        if (numberOfSlots == words.length) {
+            grow();
+        }
+        return numberOfSlots++;
+    }
+
+    private void grow() {
+        int capacity = words.length * 2;
+        words = Arrays.copyOf(words, capacity);
+        counts = Arrays.copyOf(counts, capacity);
+        freeSlots = Arrays.copyOf(freeSlots, capacity);
+        // Rebuilding the tree takes linear time, which is constant time per added slot on average
+        tree = new int[capacity + 1];
+        for (int i = 1; i <= capacity; i++) {
+            tree[i] += counts[i - 1];
+            int parent = i + Integer.lowestOneBit(i);
+            if (parent <= capacity) {
+                tree[parent] += tree[i];
+            }
+        }
+    }
+
+    private void updateTree(int slot, int delta) {
+        for (int i = slot + 1; i < tree.length; i += Integer.lowestOneBit(i)) {
+            tree[i] += delta;
+        }
+    }
+
+    /**
+     * @return the total count of the slots before the given slot
+     */
+    private int getCountBefore(int slot) {
+        int total = 0;
+        for (int i = slot; i > 0; i -= Integer.lowestOneBit(i)) {
+            total += tree[i];
+        }
+        return total;
+    }
+
+    /*-********************************************-*
+     *  BAG
+     *-********************************************-*/
+
+    @Override
+    public String get(int index) {
+        if (index < 0 || index >= getAmountOfElements()) {
+            throw new IndexOutOfBoundsException("Index " + index + " of a bag of " + getAmountOfElements());
+        }
+        return words[getSlot(index)];
+    }
+
+    /**
+     * @return the slot of the word of the element at the given index
+     */
+    private int getSlot(int index) {
+        // Descends the tree to the last slot of which the running total before it does not exceed the index
+        int slot = 0;
+        int remaining = index;
+        for (int step = Integer.highestOneBit(tree.length - 1); step > 0; step >>= 1) {
+            int next = slot + step;
+            if (next < tree.length && tree[next] <= remaining) {
+                slot = next;
+                remaining -= tree[next];
+            }
+        }
+        return slot;
+    }
+
+    @Override
+    public int getAmountOfElements() {
+        return amountOfElements;
+    }
+
+    @Override
+    public int getAmountOfUniqueElements() {
+        return slots.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return amountOfElements == 0;
+    }
+
+    @Override
+    public int size() {
+        return getAmountOfElements();
+    }
+
+    @Override
+    public Multiset<String> toMultiset() {
+        Multiset<String> multiset = LinkedHashMultiset.create(getAmountOfUniqueElements());
+        for (int slot = 0; slot < numberOfSlots; slot++) {
+            if (counts[slot] > 0) {
+                multiset.add(words[slot], counts[slot]);
+            }
+        }
+        return multiset;
+    }
+
+    /**
+     * @return the distinct words of this bag, in the order of the bag, without copying them
+     */
+    Iterable<String> getDistinctWords() {
+        return () -> new Iterator<String>() {
+            private int slot = nextUsedSlot(0);
+
+            @Override
+            public boolean hasNext() {
+                return slot < numberOfSlots;
+            }
+
+            @Override
+            public String next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                String word = words[slot];
+                slot = nextUsedSlot(slot + 1);
+                return word;
+            }
+        };
+    }
+
+    private int nextUsedSlot(int slot) {
+        while (slot < numberOfSlots && counts[slot] == 0) {
+            slot++;
+        }
+        return slot;
+    }
+
+    /**
+     * @return the number of occurrences of the given word
+     */
+    public int getCount(String word) {
+        int slot = slots.get(vocabulary.getId(word));
+        return slot < 0 ? 0 : counts[slot];
+    }
+
+    /*-********************************************-*
+     *  EXCLUSION
+     *-********************************************-*/
+
+    /**
+     * @return a view of this bag without the occurrences of the given word, sharing the arrays of this bag, which is
+     * only valid until the bag is changed
+     */
+    public Bag<String> without(String word) {
+        int slot = slots.get(vocabulary.getId(word));
+        return slot < 0 ? this : new Exclusion(slot);
+    }
+
+    /**
+     * All elements of the bag except the occurrences of one word, of which the elements after it are shifted
+     */
+    private final class Exclusion implements Bag<String> {
+        private final int excludedSlot;
+        private final int excludedStart;
+        private final int excludedCount;
+
+        private Exclusion(int excludedSlot) {
+            this.excludedSlot = excludedSlot;
+            this.excludedCount = counts[excludedSlot];
+            this.excludedStart = getCountBefore(excludedSlot);
+        }
+
+        @Override
+        public String get(int index) {
+            if (index < 0 || index >= getAmountOfElements()) {
+                throw new IndexOutOfBoundsException("Index " + index + " of a bag of " + getAmountOfElements());
+            }
+            return CompactBag.this.get(index < excludedStart ? index : index + excludedCount);
+        }
+
+        @Override
+        public int getAmountOfElements() {
+            return CompactBag.this.getAmountOfElements() - excludedCount;
+        }
+
+        @Override
+        public int getAmountOfUniqueElements() {
+            return CompactBag.this.getAmountOfUniqueElements() - 1;
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return getAmountOfUniqueElements() == 0;
+        }
+
+        @Override
+        public int size() {
+            return getAmountOfElements();
+        }
+
+        @Override
+        public Multiset<String> toMultiset() {
+            Multiset<String> multiset = CompactBag.this.toMultiset();
+            multiset.remove(words[excludedSlot], excludedCount);
+            return multiset;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return toMultiset().toString();
+    }
+}
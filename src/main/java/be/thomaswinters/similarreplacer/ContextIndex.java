@@ -0,0 +1,530 @@
+package be.thomaswinters.similarreplacer;
+
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * Tagged version of a context corpus, calculated once such that generating does not have to analyse the context
+ * lines again. Every line is stored as a run of (POS-tag set, word) entries in flat arrays, with both the tag sets
+ * and the words interned to ids. The arrays are kept as {@link IntBuffer}s, such that an index can also be read
+ * directly from a memory-mapped {@link TaggedCorpusCache} file.
+ * <p>
+ * Lines appended using {@link #withLines(List, SimilarWordReplacer)} are stored after these base lines, in arrays
+ * shared by the index and every index appended to it later, such that appending only tags and stores the new lines.
+ * Words that do not occur in the base lines get the ids following the ids of the base words.
+ */
+public class ContextIndex {
+
+    /**
+     * Lines the index was built or read with, shared by all indices created by appending lines to it
+     */
+    private final Base base;
+    /**
+     * Lines appended after the base lines, or null if there are none
+     */
+    private final AppendedLines appended;
+
+    /*-********************************************-*
+     *  Construction
+     *-********************************************-*/
+    ContextIndex(List<Set<String>> tagSets, List<String> words,
+                 IntBuffer lineOffsets, IntBuffer entryTagSets, IntBuffer entryWords) {
+        this(tagSets, words, lineOffsets, entryTagSets, entryWords, null);
+    }
+
+    /**
+     * @param wordHashSlots hash table of the word ids + 1 as created by
+     *                      {@link WordFrequencyTable#createHashSlots(List)}, e.g. of a vocabulary starting with the
+     *                      words of this index, of which ids outside of this index are ignored; or null to create it
+     *                      when a word is first looked up
+     */
+    ContextIndex(List<Set<String>> tagSets, List<String> words,
+                 IntBuffer lineOffsets, IntBuffer entryTagSets, IntBuffer entryWords, IntBuffer wordHashSlots) {
+        this(new Base(tagSets, words, lineOffsets, entryTagSets, entryWords, wordHashSlots), null);
+    }
+
+    private ContextIndex(Base base, AppendedLines appended) {
+        this.base = base;
+        this.appended = appended;
+    }
+
+    /**
+     * Tags every line of the given corpus using the given tagger
+     *
+     * @param contextCorpus lines to index
+     * @param tagger        word replacer used to analyse and filter the tokens of every line
+     * @return an index containing the replaceable words of every line
+     */
+    public static ContextIndex build(List<String> contextCorpus, SimilarWordReplacer tagger) {
+        Builder builder = new Builder();
+        for (String line : contextCorpus) {
+            builder.addLine(line, tagger);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Joins indices of consecutive parts of a corpus, e.g. tagged on different threads, into the index of the whole
+     * corpus. The lines are copied without tagging them again, and the result is the same as building the index of
+     * the whole corpus at once.
+     */
+    static ContextIndex concat(List<ContextIndex> parts) {
+        Builder builder = new Builder();
+        for (ContextIndex part : parts) {
+            for (int line = 0; line < part.getNumberOfLines(); line++) {
+                builder.copyLine(part, line);
+            }
+        }
+        return builder.build();
+    }
+
+    /*-********************************************-*
+     *  ACCESS
+     *-********************************************-*/
+
+    public int getNumberOfLines() {
+        return base.getNumberOfLines() + (appended != null ? appended.numberOfLines : 0);
+    }
+
+    /**
+     * Adds all the context words of the given line to the word replacer, without analysing the line again and
+     * without looking up the words, as the word replacer identifies them by their id in this index
+     */
+    public void addLineTo(int line, SimilarWordReplacer replacer) {
+        forEachEntry(line, (wordId, tagSetId) -> replacer.addContextWord(this, wordId, tagSetId));
+    }
+
+    /**
+     * Passes every context word of the given line, together with the {@link TagSets} id of its tags, to the consumer
+     */
+    public void forEachContextWord(int line, ObjIntConsumer<String> consumer) {
+        forEachEntry(line, (wordId, tagSetId) -> consumer.accept(getWord(wordId), tagSetId));
+    }
+
+    /**
+     * Removes the context words of the given line from the word replacer, e.g. when it leaves a {@link ContextWindow}
+     */
+    public void removeLineFrom(int line, SimilarWordReplacer replacer) {
+        forEachEntry(line, (wordId, tagSetId) -> replacer.removeContextWord(this, wordId, tagSetId));
+    }
+
+    public void addLinesTo(Collection<Integer> lines, SimilarWordReplacer replacer) {
+        for (int line : lines) {
+            addLineTo(line, replacer);
+        }
+    }
+
+    private interface EntryConsumer {
+        void accept(int wordId, int tagSetId);
+    }
+
+    /**
+     * Passes the word id and the {@link TagSets} id of every entry of the given line to the consumer
+     */
+    private void forEachEntry(int line, EntryConsumer consumer) {
+        if (line < base.getNumberOfLines()) {
+            for (int entry = base.lineOffsets.get(line); entry < base.lineOffsets.get(line + 1); entry++) {
+                consumer.accept(base.entryWords.get(entry), base.tagSetIds[base.entryTagSets.get(entry)]);
+            }
+            return;
+        }
+        int appendedLine = line - base.getNumberOfLines();
+        if (appended == null || appendedLine >= appended.numberOfLines) {
+            throw new IndexOutOfBoundsException("Line " + line + " of an index of " + getNumberOfLines() + " lines");
+        }
+        for (int entry = appended.lineOffsets[appendedLine]; entry < appended.lineOffsets[appendedLine + 1];
+             entry++) {
+            consumer.accept(appended.entryWords[entry], appended.entryTagSetIds[entry]);
+        }
+    }
+
+    String getWord(int wordId) {
+        int numberOfBaseWords = base.words.size();
+        return wordId < numberOfBaseWords ? base.words.get(wordId) : appended.words[wordId - numberOfBaseWords];
+    }
+
+    /**
+     * @return the id of the given word in this index, or -1 if no line of the index contains it
+     */
+    int getWordId(String word) {
+        int id = base.getWordId(word);
+        if (id < 0 && appended != null) {
+            Integer appendedId = appended.tail.wordIds.get(word);
+            // The tail can already contain words of indices appended later
+            if (appendedId != null && appendedId - base.words.size() < appended.numberOfWords) {
+                return appendedId;
+            }
+        }
+        return id;
+    }
+
+    /**
+     * @return up to two distinct words the index contains for the tag set with the given {@link TagSets} id, which
+     * is enough to decide whether a token with these tags could ever be replaced by another word
+     */
+    public List<String> getSampleWords(int tagSetId) {
+        List<String> baseSamples = base.getSampleWords(tagSetId);
+        if (appended == null || baseSamples.size() >= 2) {
+            return baseSamples;
+        }
+        List<String> samples = new ArrayList<>(baseSamples);
+        for (String word : appended.sampleWords.getOrDefault(tagSetId, Collections.emptyList())) {
+            if (samples.size() < 2 && !samples.contains(word)) {
+                samples.add(word);
+            }
+        }
+        return samples;
+    }
+
+    /*-********************************************-*
+     *  UPDATING
+     *-********************************************-*/
+
+    /**
+     * @return a new index containing the lines of this index followed by the given lines, tagging and storing only
+     * the new lines
+     */
+    public ContextIndex withLines(List<String> newLines, SimilarWordReplacer tagger) {
+        Tail tail = appended != null ? appended.tail : new Tail(base);
+        synchronized (tail) {
+            if (appended != null && tail.numberOfLines != appended.numberOfLines) {
+                // A later index already appended to the shared tail, so this index gets a tail of its own
+                tail = new Tail(this);
+            }
+            for (String line : newLines) {
+                tail.addLine(line, tagger);
+            }
+            return new ContextIndex(base, new AppendedLines(tail));
+        }
+    }
+
+    /**
+     * @param lines indices of the lines to keep, in the order they should have in the new index
+     * @return a new index containing only the given lines of this index, without tagging anything again
+     */
+    public ContextIndex retainLines(int[] lines) {
+        Builder builder = new Builder();
+        for (int line : lines) {
+            builder.copyLine(this, line);
+        }
+        return builder.build();
+    }
+
+    /*-********************************************-*
+     *  FLAT ARRAYS
+     *-********************************************-*/
+
+    /**
+     * The flat arrays of the lines of the index. If lines were appended, the index is copied into new flat arrays
+     * first, so these should only be used to store the index.
+     */
+    private Base getFlatBase() {
+        if (appended == null) {
+            return base;
+        }
+        return concat(Collections.singletonList(this)).base;
+    }
+
+    List<Set<String>> getTagSets() {
+        return getFlatBase().tagSets;
+    }
+
+    List<String> getWords() {
+        return getFlatBase().words;
+    }
+
+    IntBuffer getLineOffsets() {
+        return getFlatBase().lineOffsets.duplicate();
+    }
+
+    IntBuffer getEntryTagSets() {
+        return getFlatBase().entryTagSets.duplicate();
+    }
+
+    IntBuffer getEntryWords() {
+        return getFlatBase().entryWords.duplicate();
+    }
+
+    /*-********************************************-*
+     *  PARTS
+     *-********************************************-*/
+
+    /**
+     * Lines of which the entries are stored in flat buffers, together with the structures that are calculated from
+     * them when needed
+     */
+    private static final class Base {
+        private final List<Set<String>> tagSets;
+        /**
+         * Global {@link TagSets} id of every tag set of this index
+         */
+        private final int[] tagSetIds;
+        private final List<String> words;
+
+        /**
+         * Entries of line i are stored from lineOffsets[i] (inclusive) to lineOffsets[i+1] (exclusive)
+         */
+        private final IntBuffer lineOffsets;
+        private final IntBuffer entryTagSets;
+        private final IntBuffer entryWords;
+
+        /**
+         * Up to two distinct words of every tag set, keyed by {@link TagSets} id, only calculated when needed
+         */
+        private volatile Map<Integer, List<String>> sampleWordsByTagSet;
+        /**
+         * Hash table of the word ids + 1, or 0 if empty, either given or only calculated when a word is first looked
+         * up. It can contain ids of words after the words of this index, which are skipped.
+         */
+        private volatile IntBuffer wordHashSlots;
+
+        private Base(List<Set<String>> tagSets, List<String> words,
+                     IntBuffer lineOffsets, IntBuffer entryTagSets, IntBuffer entryWords, IntBuffer wordHashSlots) {
+            this.tagSets = tagSets;
+            this.tagSetIds = tagSets.stream().mapToInt(TagSets::getId).toArray();
+            this.words = words;
+            this.lineOffsets = lineOffsets;
+            this.entryTagSets = entryTagSets;
+            this.entryWords = entryWords;
+            this.wordHashSlots = wordHashSlots;
+        }
+
+        private int getNumberOfLines() {
+            return lineOffsets.limit() - 1;
+        }
+
+        private int getWordId(String word) {
+            IntBuffer slots = wordHashSlots;
+            if (slots == null) {
+                slots = IntBuffer.wrap(WordFrequencyTable.createHashSlots(words));
+                wordHashSlots = slots;
+            }
+            int mask = slots.limit() - 1;
+            for (int slot = WordFrequencyTable.hash(word) & mask; slots.get(slot) != 0; slot = (slot + 1) & mask) {
+                int id = slots.get(slot) - 1;
+                if (id < words.size() && words.get(id).equals(word)) {
+                    return id;
+                }
+            }
+            return -1;
+        }
+
+        private List<String> getSampleWords(int tagSetId) {
+            Map<Integer, List<String>> sampleWords = sampleWordsByTagSet;
+            if (sampleWords == null) {
+                sampleWords = calculateSampleWords();
+                sampleWordsByTagSet = sampleWords;
+            }
+            return sampleWords.getOrDefault(tagSetId, Collections.emptyList());
+        }
+
+        private Map<Integer, List<String>> calculateSampleWords() {
+            Map<Integer, List<String>> sampleWords = new HashMap<>();
+            for (int entry = 0; entry < entryWords.limit(); entry++) {
+                List<String> samples = sampleWords.computeIfAbsent(tagSetIds[entryTagSets.get(entry)],
+                        e -> new ArrayList<>(2));
+                String word = words.get(entryWords.get(entry));
+                if (samples.size() < 2 && !samples.contains(word)) {
+                    samples.add(word);
+                }
+            }
+            return sampleWords;
+        }
+    }
+
+    /**
+     * Appended lines of a chain of indices, of which every index only reads the part that existed when it was
+     * created. Only the latest index of the chain writes to it, behind the part of every earlier index.
+     */
+    private static final class Tail {
+        private final Base base;
+        private int[] lineOffsets = new int[]{0};
+        private int numberOfLines;
+        private int[] entryTagSetIds = new int[0];
+        private int[] entryWords = new int[0];
+        private int numberOfEntries;
+        private String[] words = new String[0];
+        private int numberOfWords;
+        /**
+         * Id of every appended word that does not occur in the base lines, also read by the indices of the chain
+         */
+        private final Map<String, Integer> wordIds = new ConcurrentHashMap<>();
+        /**
+         * Up to two distinct words of every tag set of the appended lines, copied by every index of the chain
+         */
+        private final Map<Integer, List<String>> sampleWords = new HashMap<>();
+
+        private Tail(Base base) {
+            this.base = base;
+        }
+
+        /**
+         * Creates a tail containing the appended lines of the given index
+         */
+        private Tail(ContextIndex index) {
+            this(index.base);
+            AppendedLines appended = index.appended;
+            lineOffsets = Arrays.copyOf(appended.lineOffsets, appended.numberOfLines + 1);
+            numberOfLines = appended.numberOfLines;
+            numberOfEntries = lineOffsets[numberOfLines];
+            entryTagSetIds = Arrays.copyOf(appended.entryTagSetIds, numberOfEntries);
+            entryWords = Arrays.copyOf(appended.entryWords, numberOfEntries);
+            words = Arrays.copyOf(appended.words, appended.numberOfWords);
+            numberOfWords = appended.numberOfWords;
+            for (int i = 0; i < numberOfWords; i++) {
+                wordIds.put(words[i], base.words.size() + i);
+            }
+            sampleWords.putAll(appended.sampleWords);
+        }
+
+        /**
+         * Adds the entries of the line, or nothing at all if tagging the line fails, such that the next line does not
+         * start with the entries of a line that was only tagged partly
+         */
+        private void addLine(String line, SimilarWordReplacer tagger) {
+            int lineStart = numberOfEntries;
+            int numberOfWordsBefore = numberOfWords;
+            try {
+                tagger.forEachContextWord(line, this::addEntry);
+            } catch (IOException | RuntimeException e) {
+                numberOfEntries = lineStart;
+                for (int i = numberOfWordsBefore; i < numberOfWords; i++) {
+                    wordIds.remove(words[i]);
+                    words[i] = null;
+                }
+                numberOfWords = numberOfWordsBefore;
+                if (e instanceof IOException) {
+                    throw new RuntimeException(e);
+                }
+                throw (RuntimeException) e;
+            }
+            if (numberOfLines + 1 == lineOffsets.length) {
+                lineOffsets = Arrays.copyOf(lineOffsets, lineOffsets.length * 2);
+            }
+            lineOffsets[++numberOfLines] = numberOfEntries;
+            for (int entry = lineStart; entry < numberOfEntries; entry++) {
+                addSampleWord(entryTagSetIds[entry], getWord(entryWords[entry]));
+            }
+        }
+
+        private void addEntry(String word, int tagSetId) {
+            if (numberOfEntries == entryWords.length) {
+                entryWords = Arrays.copyOf(entryWords, Math.max(16, numberOfEntries * 2));
+                entryTagSetIds = Arrays.copyOf(entryTagSetIds, entryWords.length);
+            }
+            entryWords[numberOfEntries] = getOrCreateWordId(word);
+            entryTagSetIds[numberOfEntries] = tagSetId;
+            numberOfEntries++;
+        }
+
+        private void addSampleWord(int tagSetId, String word) {
+            List<String> samples = sampleWords.get(tagSetId);
+            if (samples == null) {
+                sampleWords.put(tagSetId, Collections.singletonList(word));
+            } else if (samples.size() < 2 && !samples.contains(word)) {
+                sampleWords.put(tagSetId, Arrays.asList(samples.get(0), word));
+            }
+        }
+
+        private String getWord(int wordId) {
+            int numberOfBaseWords = base.words.size();
+            return wordId < numberOfBaseWords ? base.words.get(wordId) : words[wordId - numberOfBaseWords];
+        }
+
+        private int getOrCreateWordId(String word) {
+            int id = base.getWordId(word);
+            if (id >= 0) {
+                return id;
+            }
+            Integer appendedId = wordIds.get(word);
+            if (appendedId != null) {
+                return appendedId;
+            }
+            if (numberOfWords == words.length) {
+                words = Arrays.copyOf(words, Math.max(16, numberOfWords * 2));
+            }
+            words[numberOfWords] = word;
+            id = base.words.size() + numberOfWords++;
+            wordIds.put(word, id);
+            return id;
+        }
+    }
+
+    /**
+     * The part of a tail that belongs to one index, referring to the arrays of the tail at the time the index was
+     * created
+     */
+    private static final class AppendedLines {
+        private final Tail tail;
+        private final int[] lineOffsets;
+        private final int numberOfLines;
+        private final int[] entryTagSetIds;
+        private final int[] entryWords;
+        private final String[] words;
+        private final int numberOfWords;
+        private final Map<Integer, List<String>> sampleWords;
+
+        private AppendedLines(Tail tail) {
+            this.tail = tail;
+            this.lineOffsets = tail.lineOffsets;
+            this.numberOfLines = tail.numberOfLines;
+            this.entryTagSetIds = tail.entryTagSetIds;
+            this.entryWords = tail.entryWords;
+            this.words = tail.words;
+            this.numberOfWords = tail.numberOfWords;
+            this.sampleWords = new HashMap<>(tail.sampleWords);
+        }
+    }
+
+    /*-********************************************-*
+     *  BUILDER
+     *-********************************************-*/
+
+    static class Builder {
+        private final List<Set<String>> tagSets = new ArrayList<>();
+        private final Map<Integer, Integer> tagSetIds = new HashMap<>();
+        private final List<String> words = new ArrayList<>();
+        private final Map<String, Integer> wordIds = new HashMap<>();
+
+        private final IntArrayList lineOffsets = new IntArrayList();
+        private final IntArrayList entryTagSets = new IntArrayList();
+        private final IntArrayList entryWords = new IntArrayList();
+
+        Builder() {
+            lineOffsets.add(0);
+        }
+
+        void addLine(String line, SimilarWordReplacer tagger) {
+            try {
+                tagger.forEachContextWord(line, this::addEntry);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            lineOffsets.add(entryWords.size());
+        }
+
+        void copyLine(ContextIndex index, int line) {
+            index.forEachContextWord(line, this::addEntry);
+            lineOffsets.add(entryWords.size());
+        }
+
+        private void addEntry(String word, int tagSetId) {
+            entryTagSets.add(tagSetIds.computeIfAbsent(tagSetId, e -> {
+                tagSets.add(TagSets.get(e));
+                return tagSets.size() - 1;
+            }));
+            entryWords.add(wordIds.computeIfAbsent(word, e -> {
+                words.add(e);
+                return words.size() - 1;
+            }));
+        }
+
+        ContextIndex build() {
+            return new ContextIndex(tagSets, words, IntBuffer.wrap(lineOffsets.toArray()),
+                    IntBuffer.wrap(entryTagSets.toArray()), IntBuffer.wrap(entryWords.toArray()));
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package be.thomaswinters.similarreplacer;
+
+/**
+ * Context of a run of consecutive lines of a context index, kept in a word replacer that is updated as the window
+ * moves: moving the window by one line only adds the entering line and removes the leaving line, instead of filling a
+ * new word replacer with all lines of the window. This allows walking through the corpus sequentially, e.g. to
+ * generate along a conversation.
+ * <p>
+ * A window is not thread-safe, and keeps using the context index it was created with, even if the corpus of its
+ * generator is updated afterwards.
+ */
+public class ContextWindow {
+    /**
+     * Snapshot of the corpus of the generator that created the window, or null if it was created directly
+     */
+    private final DynamicTemplateGenerator.Corpus corpus;
+    private final ContextIndex contextIndex;
+    private final SimilarWordReplacer wordReplacer;
+    private final int size;
+
+    private int firstLine;
+    private int endLine;
+    /**
+     * Time spent adding and removing context words since it was last taken, to report it as context tagging time
+     */
+    private long pendingUpdateNanos;
+
+    /*-********************************************-*
+     *  Construction
+     *-********************************************-*/
+
+    /**
+     * @param wordReplacer empty word replacer to keep the context words of the window in
+     * @param size         number of lines in the window (or less if the context index is smaller)
+     * @param firstLine    first line of the window
+     */
+    public ContextWindow(ContextIndex contextIndex, SimilarWordReplacer wordReplacer, int size, int firstLine) {
+        this(null, contextIndex, wordReplacer, size, firstLine);
+    }
+
+    /**
+     * @param corpus snapshot of the corpus of which the context index is part
+     */
+    ContextWindow(DynamicTemplateGenerator.Corpus corpus, ContextIndex contextIndex, SimilarWordReplacer wordReplacer,
+                  int size, int firstLine) {
+        if (size < 1) {
+            throw new IllegalArgumentException("Window size should be at least 1, but was " + size);
+        }
+        this.corpus = corpus;
+        this.contextIndex = contextIndex;
+        this.wordReplacer = wordReplacer;
+        this.size = Math.min(size, contextIndex.getNumberOfLines());
+        this.firstLine = clamp(firstLine);
+        this.endLine = this.firstLine + this.size;
+        long start = System.nanoTime();
+        addLines(this.firstLine, endLine);
+        pendingUpdateNanos += System.nanoTime() - start;
+    }
+
+    /*-********************************************-*
+     *  MOVING
+     *-********************************************-*/
+
+    /**
+     * Moves the window such that it starts at the given line, or as close to it as possible while keeping the whole
+     * window inside the context index. Only the lines entering and leaving the window are processed, in both
+     * directions.
+     */
+    public void moveTo(int line) {
+        long start = System.nanoTime();
+        int newFirstLine = clamp(line);
+        int newEndLine = newFirstLine + size;
+        if (newFirstLine >= endLine || newEndLine <= firstLine) {
+            removeLines(firstLine, endLine);
+            addLines(newFirstLine, newEndLine);
+        } else if (newFirstLine > firstLine) {
+            removeLines(firstLine, newFirstLine);
+            addLines(endLine, newEndLine);
+        } else if (newFirstLine < firstLine) {
+            removeLines(newEndLine, endLine);
+            addLines(newFirstLine, firstLine);
+        }
+        firstLine = newFirstLine;
+        endLine = newEndLine;
+        pendingUpdateNanos += System.nanoTime() - start;
+    }
+
+    /**
+     * Moves the window one line further
+     *
+     * @return false if the window already reached the end of the context index
+     */
+    public boolean slide() {
+        if (endLine >= contextIndex.getNumberOfLines()) {
+            return false;
+        }
+        moveTo(firstLine + 1);
+        return true;
+    }
+
+    private void addLines(int from, int to) {
+        for (int line = from; line < to; line++) {
+            contextIndex.addLineTo(line, wordReplacer);
+        }
+    }
+
+    private void removeLines(int from, int to) {
+        for (int line = from; line < to; line++) {
+            contextIndex.removeLineFrom(line, wordReplacer);
+        }
+    }
+
+    private int clamp(int line) {
+        return Math.max(0, Math.min(line, contextIndex.getNumberOfLines() - size));
+    }
+
+    /*-********************************************-*
+     *  ACCESS
+     *-********************************************-*/
+
+    /**
+     * @return the word replacer containing exactly the context words of the lines of this window
+     */
+    public SimilarWordReplacer getWordReplacer() {
+        return wordReplacer;
+    }
+
+    public int getFirstLine() {
+        return firstLine;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    DynamicTemplateGenerator.Corpus getCorpus() {
+        return corpus;
+    }
+
+    /**
+     * @return the time spent updating the context words of the window since the previous call, e.g. to report it
+     * together with the next generation from the window
+     */
+    long takeUpdateNanos() {
+        long updateNanos = pendingUpdateNanos;
+        pendingUpdateNanos = 0;
+        return updateNanos;
+    }
+}
@@ -1,17 +1,12 @@
 package be.thomaswinters.similarreplacer;
 
 import com.google.common.base.Charsets;
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-import com.google.gson.stream.JsonReader;
-
-import java.io.BufferedReader;
-import java.io.FileWriter;
-import java.io.IOException;
-import java.io.InputStreamReader;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Optional;
+
+import java.io.*;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
 
 public class DynamicTemplateExecutor {
 
@@ -19,50 +14,210 @@ public class DynamicTemplateExecutor {
      * EXECUTION
      *-********************************************-*/
 
-    private static final int DEFAULT_MAX_NUMBER_OF_TRIALS = 100;
+    static final int DEFAULT_MAX_NUMBER_OF_TRIALS = 100;
+    static final int NUMBER_OF_CONTEXT_LINES = 3;
 
-    public static void main(String[] args) throws IOException {
+    /**
+     * Directory to store the tagged version of the corpus in, such that the next run on the same corpus does not
+     * have to tag it again
+     */
+    private static final String CACHE_OPTION = "cache";
+    /**
+     * Number of threads to generate with
+     */
+    static final String PARALLELISM_OPTION = "parallelism";
+    /**
+     * Seed for the random generators, such that running again with the same seed results in the same output
+     */
+    static final String SEED_OPTION = "seed";
+
+    /**
+     * Reads the templates one by one instead of loading the whole input file in memory. Only the templates are
+     * streamed, so this only has an effect together with a separate context corpus: otherwise the input file is the
+     * context corpus, which is always kept in memory.
+     */
+    private static final String STREAMING_OPTION = "streaming";
+    /**
+     * Corpus to take the context words from, if it should be different from the input file
+     */
+    private static final String CONTEXT_OPTION = "context";
+    /**
+     * Format of the output file: "json" for a JSON array, "jsonl" for JSON Lines
+     */
+    private static final String OUTPUT_FORMAT_OPTION = "output-format";
+    /**
+     * How to check that generated lines are not in the context corpus: "exact" (default), "bloom" or "minhash"
+     */
+    private static final String NOVELTY_OPTION = "novelty";
+    /**
+     * Probability that the Bloom filter novelty check wrongly rejects a novel line
+     */
+    private static final String BLOOM_FALSE_POSITIVE_PROBABILITY_OPTION = "bloom-fpp";
+    /**
+     * Minimum estimated similarity for the MinHash novelty check to consider a line a near-duplicate of the corpus
+     */
+    private static final String MINHASH_SIMILARITY_OPTION = "minhash-similarity";
+
+    /**
+     * Number of threads to tag the corpus with when it is not taken from the cache, all processors by default
+     */
+    private static final String INDEX_PARALLELISM_OPTION = "index-parallelism";
 
-        String inputFileName = args[0];
-        String outputFile = args[1];
+    /**
+     * Where to report the duration of the generation stages and the generation counters to: "log" prints a summary at
+     * the end of the run, "jfr" emits Java Flight Recorder events
+     */
+    private static final String METRICS_OPTION = "metrics";
 
+    private static final double DEFAULT_BLOOM_FALSE_POSITIVE_PROBABILITY = 0.001;
+    private static final double DEFAULT_MINHASH_SIMILARITY = 0.8;
 
-        Gson gson = new GsonBuilder().setPrettyPrinting().disableHtmlEscaping().create();
-        JsonReader reader = new JsonReader(new BufferedReader(
-                new InputStreamReader(ClassLoader.getSystemResource(inputFileName).openStream(), Charsets.UTF_8)));
-        List<String> corpus = gson.fromJson(reader, List.class);
+    /**
+     * Number of lines every thread generates before the generated lines are written to the output
+     */
+    private static final int LINES_PER_THREAD_PER_CHUNK = 4;
 
-        System.out.println(corpus.get(10));
+    /**
+     * Arguments: input file, output file, [number of lines], [max trials], followed by any of the options as
+     * --option=value. Files are looked up on the classpath first, and in the file system otherwise.
+     */
+    public static void main(String[] args) throws IOException {
+        List<String> arguments = new ArrayList<>();
+        Map<String, String> options = new HashMap<>();
+        parseArguments(args, arguments, options);
+
+        String inputFileName = arguments.get(0);
+        String outputFile = arguments.get(1);
+        String contextFileName = options.getOrDefault(CONTEXT_OPTION, inputFileName);
+        boolean streaming = options.containsKey(STREAMING_OPTION);
 
-        int numberOfLines = corpus.size();
-        if (args.length > 2) {
-            numberOfLines = Integer.parseInt(args[2]);
+        // The context corpus has to be in memory to pick random context lines from
+        List<String> corpus = JsonCorpusReader.readAll(openCorpus(contextFileName));
+
+        int numberOfLines = Integer.MAX_VALUE;
+        if (arguments.size() > 2) {
+            numberOfLines = Integer.parseInt(arguments.get(2));
         }
         int maxTrials = DEFAULT_MAX_NUMBER_OF_TRIALS;
-        if (args.length > 3) {
-            maxTrials = Integer.parseInt(args[3]);
+        if (arguments.size() > 3) {
+            maxTrials = Integer.parseInt(arguments.get(3));
         }
+        int parallelism = Integer.parseInt(options.getOrDefault(PARALLELISM_OPTION, "1"));
+        long seed = options.containsKey(SEED_OPTION)
+                ? Long.parseLong(options.get(SEED_OPTION))
+                : new Random().nextLong();
+        System.err.println("Generating using seed " + seed);
+        JsonCorpusWriter.Format outputFormat = "jsonl".equals(options.get(OUTPUT_FORMAT_OPTION))
+                ? JsonCorpusWriter.Format.JSON_LINES
+                : JsonCorpusWriter.Format.JSON;
+
+        DynamicTemplateGenerator frequencyBasedSimilarWordReplacer = createGenerator(options, corpus);
 
-        DynamicTemplateGenerator frequencyBasedSimilarWordReplacer = new DynamicTemplateGenerator(corpus, corpus);
-
-        List<String> output = new ArrayList<>();
-        for (int i = 0; i < numberOfLines; i++) {
-            String dynamicTemplate = corpus.get(i);
-            Optional<String> generated = Optional.empty();
-            int trial = 0;
-            while (!generated.isPresent() && trial <= maxTrials) {
-                generated = frequencyBasedSimilarWordReplacer.generate(dynamicTemplate, 3, false);
-                trial += 1;
-                if (generated.isPresent() && corpus.contains(generated.get()) && trial <= 100) {
-                    generated = Optional.empty();
+        INoveltyFilter noveltyFilter = createNoveltyFilter(options, corpus);
+        GenerationMetricsRecorder metricsRecorder = null;
+        if ("log".equals(options.get(METRICS_OPTION))) {
+            metricsRecorder = new GenerationMetricsRecorder();
+            frequencyBasedSimilarWordReplacer.setMetrics(metricsRecorder);
+        } else if ("jfr".equals(options.get(METRICS_OPTION))) {
+            frequencyBasedSimilarWordReplacer.setMetrics(new JfrGenerationMetrics());
+        }
+
+        NovelLineGenerator novelLineGenerator = new NovelLineGenerator(frequencyBasedSimilarWordReplacer,
+                noveltyFilter, maxTrials, NUMBER_OF_CONTEXT_LINES);
+        int chunkSize = parallelism * LINES_PER_THREAD_PER_CHUNK;
+        // If the input file is also the context corpus, it is already in memory, so it is not read a second time
+        boolean readTemplatesSeparately = !contextFileName.equals(inputFileName);
+        if (streaming && !readTemplatesSeparately) {
+            System.err.println("Streaming has no effect without a separate --" + CONTEXT_OPTION
+                    + " corpus, since the input file is kept in memory as context corpus");
+        }
+        try (JsonCorpusReader templateReader = readTemplatesSeparately
+                ? new JsonCorpusReader(openCorpus(inputFileName)) : null;
+             ParallelBatchGenerator batchGenerator = new ParallelBatchGenerator(parallelism, seed);
+             JsonCorpusWriter writer = new JsonCorpusWriter(Files.newBufferedWriter(Paths.get(outputFile),
+                     Charsets.UTF_8), outputFormat)) {
+
+            Iterator<String> templates = templateReader != null ? templateReader : corpus.iterator();
+            long index = 0;
+            while (index < numberOfLines && templates.hasNext()) {
+                List<String> chunk = new ArrayList<>(chunkSize);
+                while (chunk.size() < chunkSize && index + chunk.size() < numberOfLines && templates.hasNext()) {
+                    chunk.add(templates.next());
                 }
+                List<NovelLineGenerator.Result> output = batchGenerator.generate(chunk, index,
+                        novelLineGenerator::generate);
+                for (NovelLineGenerator.Result result : output) {
+                    if (result.getLine().isPresent()) {
+                        writer.write(result.getLine().get());
+                    } else {
+                        System.err.println("Could not generate a novel line ("
+                                + result.getStatus().name().toLowerCase(Locale.ROOT) + "): " + result.getTemplate());
+                    }
+                }
+                index += chunk.size();
             }
-            output.add(generated.get());
         }
-        try (FileWriter writer = new FileWriter(outputFile, Charsets.UTF_8)) {
-            gson.toJson(output, writer);
-        } catch (IOException e) {
-            e.printStackTrace();
+        // Diagnostics go to the error stream, such that the standard output only contains what the caller asked for
+        System.err.println(frequencyBasedSimilarWordReplacer.getTemplateAnalysisCache());
+        if (metricsRecorder != null) {
+            System.err.println(metricsRecorder);
+        }
+    }
+
+    static DynamicTemplateGenerator createGenerator(Map<String, String> options, List<String> corpus)
+            throws IOException {
+        if (options.containsKey(CACHE_OPTION)) {
+            TaggedCorpus taggedCorpus = new TaggedCorpusCache(Paths.get(options.get(CACHE_OPTION))).get(corpus, corpus);
+            return new DynamicTemplateGenerator(corpus, corpus, taggedCorpus);
+        }
+        if (options.containsKey(INDEX_PARALLELISM_OPTION)) {
+            ParallelCorpusTagger tagger = new ParallelCorpusTagger(
+                    Integer.parseInt(options.get(INDEX_PARALLELISM_OPTION)));
+            return new DynamicTemplateGenerator(corpus, corpus, tagger.tag(corpus, corpus));
+        }
+        return new DynamicTemplateGenerator(corpus, corpus);
+    }
+
+    static INoveltyFilter createNoveltyFilter(Map<String, String> options, List<String> corpus) {
+        String novelty = options.getOrDefault(NOVELTY_OPTION, "exact");
+        switch (novelty) {
+            case "exact":
+                return new ExactNoveltyFilter(corpus);
+            case "bloom":
+                return new BloomNoveltyFilter(corpus, getDoubleOption(options,
+                        BLOOM_FALSE_POSITIVE_PROBABILITY_OPTION, DEFAULT_BLOOM_FALSE_POSITIVE_PROBABILITY));
+            case "minhash":
+                return new MinHashNoveltyFilter(corpus, getDoubleOption(options,
+                        MINHASH_SIMILARITY_OPTION, DEFAULT_MINHASH_SIMILARITY));
+            default:
+                throw new IllegalArgumentException("Unknown novelty check: " + novelty);
+        }
+    }
+
+    private static double getDoubleOption(Map<String, String> options, String option, double defaultValue) {
+        return options.containsKey(option) ? Double.parseDouble(options.get(option)) : defaultValue;
+    }
+
+    static Reader openCorpus(String fileName) throws IOException {
+        URL resource = ClassLoader.getSystemResource(fileName);
+        InputStream inputStream = resource != null
+                ? resource.openStream()
+                : Files.newInputStream(Paths.get(fileName));
+        return new BufferedReader(new InputStreamReader(inputStream, Charsets.UTF_8));
+    }
+
+    static void parseArguments(String[] args, List<String> arguments, Map<String, String> options) {
+        for (String arg : args) {
+            if (arg.startsWith("--")) {
+                int separator = arg.indexOf('=');
+                if (separator < 0) {
+                    options.put(arg.substring(2), "true");
+                } else {
+                    options.put(arg.substring(2, separator), arg.substring(separator + 1));
+                }
+            } else {
+                arguments.add(arg);
+            }
         }
     }
 }
@@ -2,61 +2,311 @@ package be.thomaswinters.similarreplacer;
 
 import be.thomaswinters.generator.generators.IGenerator;
 import be.thomaswinters.markov.model.data.bags.Bag;
-import be.thomaswinters.random.Picker;
-import be.thomaswinters.replacement.Replacer;
-import be.thomaswinters.replacement.Replacers;
 import be.thomaswinters.wordcounter.WordCounter;
-import com.google.common.base.Charsets;
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-import com.google.gson.stream.JsonReader;
 import org.jetbrains.annotations.NotNull;
 
-import java.io.BufferedReader;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.util.*;
-import java.util.stream.Collectors;
-
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+/**
+ * Generates texts by replacing rare words of a template with words having the same POS-tags from context lines.
+ * <p>
+ * Instances are safe to use from multiple threads at the same time: the corpus is kept in an immutable snapshot, text
+ * is analysed using a LanguageTool instance per thread, and randomness comes from {@link ThreadLocalRandom} unless a
+ * source of randomness is given explicitly.
+ * <p>
+ * Templates and context lines can be added and removed while generating. Such an update only tags the new lines and
+ * updates the word counts incrementally, and then publishes a new snapshot of the corpus. Generations that already
+ * started keep using the previous snapshot, so updates never block generating.
+ * <p>
+ * The duration of every {@link GenerationStage} of a generation is reported to the {@link IGenerationMetrics} set using
+ * {@link #setMetrics(IGenerationMetrics)}.
+ */
 public class DynamicTemplateGenerator implements IGenerator<String> {
 
-    private final List<String> templateBases;
-    private final List<String> contextCorpus;
-    private final WordCounter wc;
+    private volatile Corpus corpus;
 
-    private final IReplacementPicker replacementPicker = new ClosestWordReplacementPicker();
+    private final TemplateAnalysisCache templateAnalysisCache = new TemplateAnalysisCache();
+    private volatile IGenerationMetrics metrics = IGenerationMetrics.NONE;
     private final double minQuartileForReplacement;
+    private final ReplacementRules rules;
+
+    /**
+     * Serialises updates of the corpus
+     */
+    private final Object updateLock = new Object();
+    /**
+     * Counts of the words of the current corpus, only created when the corpus is first updated
+     */
+    private WordCounts wordCounts;
 
     private static final double DEFAULT_MIN_QUARTILE_FOR_REPLACEMENT = 0.62;
+    /**
+     * Number of generations to try for every requested variant before giving up on finding more distinct variants
+     */
+    private static final int TRIALS_PER_VARIANT = 10;
 
     /*-********************************************-*
      *  Construction
      *-********************************************-*/
+    /**
+     * @param contextIndex index of the context corpus, tagged using the given rules
+     * @param rules        rules deciding which words can be replaced, and the language to analyse templates in
+     */
+    public DynamicTemplateGenerator(List<String> dynamicTemplateBases,
+                                    List<String> contextCorpus,
+                                    ContextIndex contextIndex,
+                                    IWordFrequencies wc,
+                                    double minQuartileForReplacement,
+                                    ReplacementRules rules) {
+        if (contextIndex.getNumberOfLines() != contextCorpus.size()) {
+            throw new IllegalArgumentException("Context index has " + contextIndex.getNumberOfLines()
+                    + " lines, but the context corpus has " + contextCorpus.size() + " lines");
+        }
+        this.minQuartileForReplacement = minQuartileForReplacement;
+        this.rules = rules;
+        this.corpus = new Corpus(dynamicTemplateBases, contextCorpus, contextIndex, wc, minQuartileForReplacement);
+    }
+
+    public DynamicTemplateGenerator(List<String> dynamicTemplateBases,
+                                    List<String> contextCorpus,
+                                    ContextIndex contextIndex,
+                                    IWordFrequencies wc,
+                                    double minQuartileForReplacement) {
+        this(dynamicTemplateBases, contextCorpus, contextIndex, wc, minQuartileForReplacement,
+                ReplacementRules.DUTCH);
+    }
+
+    public DynamicTemplateGenerator(List<String> dynamicTemplateBases,
+                                    List<String> contextCorpus,
+                                    IWordFrequencies wc,
+                                    double minQuartileForReplacement) {
+        this(dynamicTemplateBases, contextCorpus, ContextIndex.build(contextCorpus, new SimilarWordReplacer()), wc,
+                minQuartileForReplacement);
+    }
+
     public DynamicTemplateGenerator(List<String> dynamicTemplateBases,
                                     List<String> contextCorpus,
                                     WordCounter wc,
                                     double minQuartileForReplacement) {
-        this.templateBases = dynamicTemplateBases;
-        this.contextCorpus = contextCorpus;
-        this.wc = wc;
-        this.minQuartileForReplacement = minQuartileForReplacement;
+        this(dynamicTemplateBases, contextCorpus, ContextIndex.build(contextCorpus, new SimilarWordReplacer()),
+                new WordCounterFrequencies(wc), minQuartileForReplacement);
+    }
+
+    /**
+     * Creates a generator using an already tagged version of the corpus, e.g. from a {@link TaggedCorpusCache}
+     */
+    public DynamicTemplateGenerator(List<String> dynamicTemplateBases,
+                                    List<String> contextCorpus,
+                                    TaggedCorpus taggedCorpus) {
+        this(dynamicTemplateBases, contextCorpus, taggedCorpus, ReplacementRules.DUTCH);
+    }
+
+    /**
+     * @param taggedCorpus tagged version of the corpus, tagged using the given rules
+     */
+    public DynamicTemplateGenerator(List<String> dynamicTemplateBases,
+                                    List<String> contextCorpus,
+                                    TaggedCorpus taggedCorpus,
+                                    ReplacementRules rules) {
+        this(dynamicTemplateBases, contextCorpus, taggedCorpus.getContextIndex(), taggedCorpus.getWordFrequencies(),
+                DEFAULT_MIN_QUARTILE_FOR_REPLACEMENT, rules);
     }
 
     public DynamicTemplateGenerator(List<String> dynamicTemplateBases, List<String> contextCorpus) {
+        this(dynamicTemplateBases, contextCorpus, ReplacementRules.DUTCH);
+    }
+
+    /**
+     * Tags the context corpus and counts the words of the whole corpus, using all available processors
+     */
+    public DynamicTemplateGenerator(List<String> dynamicTemplateBases, List<String> contextCorpus,
+                                    ReplacementRules rules) {
         this(dynamicTemplateBases, contextCorpus,
-                calculateWordCounter(dynamicTemplateBases, contextCorpus),
-                DEFAULT_MIN_QUARTILE_FOR_REPLACEMENT);
+                new ParallelCorpusTagger(rules).tag(dynamicTemplateBases, contextCorpus), rules);
     }
 
     protected static WordCounter calculateWordCounter(List<String> dynamicTemplateBases, List<String> contextCorpus) {
-        // Calculate word counter
-        List<String> allLines = new ArrayList<String>(dynamicTemplateBases);
-        allLines.addAll(contextCorpus);
+        // Count a view of both corpora instead of copying them into one list
+        List<String> allLines = new AbstractList<String>() {
+            @Override
+            public String get(int index) {
+                return index < dynamicTemplateBases.size()
+                        ? dynamicTemplateBases.get(index)
+                        : contextCorpus.get(index - dynamicTemplateBases.size());
+            }
 
+            @Override
+            public int size() {
+                return dynamicTemplateBases.size() + contextCorpus.size();
+            }
+        };
         return new WordCounter(allLines);
     }
 
+    /**
+     * Counts the words using a {@link WordCounter}, and copies the counts of all words of the corpus into a
+     * {@link WordFrequencyTable} such that the word counter can be discarded. The words of the context index come
+     * first, such that their ids in the index are also their ids in the table.
+     */
+    protected static WordFrequencyTable calculateWordFrequencies(List<String> dynamicTemplateBases,
+                                                                 List<String> contextCorpus,
+                                                                 ContextIndex contextIndex) {
+        return calculateWordFrequencies(dynamicTemplateBases, contextCorpus, contextIndex, ReplacementRules.DUTCH);
+    }
+
+    /**
+     * @param rules rules of which the language tokenizes the corpus into the vocabulary
+     */
+    protected static WordFrequencyTable calculateWordFrequencies(List<String> dynamicTemplateBases,
+                                                                 List<String> contextCorpus,
+                                                                 ContextIndex contextIndex,
+                                                                 ReplacementRules rules) {
+        SimilarWordReplacer tokenizer = new SimilarWordReplacer(rules);
+        Set<String> vocabulary = new LinkedHashSet<>(contextIndex.getWords());
+        addVocabulary(tokenizer, dynamicTemplateBases, vocabulary);
+        addVocabulary(tokenizer, contextCorpus, vocabulary);
+        return WordFrequencyTable.fromWordCounter(calculateWordCounter(dynamicTemplateBases, contextCorpus),
+                vocabulary);
+    }
+
+    /**
+     * Adds the non-whitespace tokens of the given lines to the vocabulary, in order of first occurrence
+     */
+    static void addVocabulary(SimilarWordReplacer tokenizer, List<String> lines, Set<String> vocabulary) {
+        for (String line : lines) {
+            for (String token : tokenizer.tokenize(line)) {
+                if (token.trim().length() > 0) {
+                    vocabulary.add(token);
+                }
+            }
+        }
+    }
+
+
+    /*-********************************************-*
+     *  UPDATING THE CORPUS
+     *-********************************************-*/
+
+    /**
+     * Adds lines to the context corpus, tagging only the new lines and appending them to the current lines and index
+     */
+    public void addContextLines(Collection<String> lines) {
+        List<String> newLines = new ArrayList<>(lines);
+        synchronized (updateLock) {
+            Corpus current = corpus;
+            getWordCounts(current).addLines(newLines);
+            publish(current.templateBases, current.contextCorpus.append(newLines),
+                    current.contextIndex.withLines(newLines, new SimilarWordReplacer(rules)));
+        }
+    }
+
+    /**
+     * Removes every occurrence of the given lines from the context corpus. Unlike adding lines, this copies the
+     * remaining lines and their part of the index.
+     */
+    public void removeContextLines(Collection<String> lines) {
+        Set<String> removed = new HashSet<>(lines);
+        synchronized (updateLock) {
+            Corpus current = corpus;
+            List<String> contextCorpus = new ArrayList<>();
+            List<String> removedLines = new ArrayList<>();
+            IntArrayList retainedLines = new IntArrayList();
+            for (int i = 0; i < current.contextCorpus.size(); i++) {
+                String line = current.contextCorpus.get(i);
+                if (removed.contains(line)) {
+                    removedLines.add(line);
+                } else {
+                    contextCorpus.add(line);
+                    retainedLines.add(i);
+                }
+            }
+            getWordCounts(current).removeLines(removedLines);
+            publish(current.templateBases, AppendOnlyList.of(contextCorpus),
+                    current.contextIndex.retainLines(retainedLines.toArray()));
+        }
+    }
+
+    public void addTemplates(Collection<String> templates) {
+        List<String> newTemplates = new ArrayList<>(templates);
+        synchronized (updateLock) {
+            Corpus current = corpus;
+            getWordCounts(current).addLines(newTemplates);
+            publish(current.templateBases.append(newTemplates), current.contextCorpus, current.contextIndex);
+        }
+    }
+
+    /**
+     * Removes every occurrence of the given templates from the template bases
+     */
+    public void removeTemplates(Collection<String> templates) {
+        Set<String> removed = new HashSet<>(templates);
+        synchronized (updateLock) {
+            Corpus current = corpus;
+            List<String> templateBases = new ArrayList<>();
+            List<String> removedTemplates = new ArrayList<>();
+            for (String template : current.templateBases) {
+                if (removed.contains(template)) {
+                    removedTemplates.add(template);
+                } else {
+                    templateBases.add(template);
+                }
+            }
+            getWordCounts(current).removeLines(removedTemplates);
+            publish(AppendOnlyList.of(templateBases), current.contextCorpus, current.contextIndex);
+        }
+    }
+
+    /**
+     * Starts counting from the word frequencies the generator was created with the first time the corpus is updated.
+     * If these are not a {@link WordFrequencyTable} yet, the counts of all tokens of the corpus are copied into one
+     * first. From then on, the counts are updated incrementally.
+     */
+    private WordCounts getWordCounts(Corpus current) {
+        if (wordCounts == null) {
+            SimilarWordReplacer tokenizer = new SimilarWordReplacer(rules);
+            WordFrequencyTable frequencies;
+            if (current.wc instanceof WordFrequencyTable) {
+                frequencies = (WordFrequencyTable) current.wc;
+            } else {
+                Set<String> vocabulary = new LinkedHashSet<>();
+                addVocabulary(tokenizer, current.templateBases, vocabulary);
+                addVocabulary(tokenizer, current.contextCorpus, vocabulary);
+                frequencies = WordFrequencyTable.fromFrequencies(current.wc, vocabulary);
+            }
+            wordCounts = new WordCounts(frequencies, tokenizer);
+        }
+        return wordCounts;
+    }
+
+    private void publish(AppendOnlyList<String> templateBases, AppendOnlyList<String> contextCorpus,
+                         ContextIndex contextIndex) {
+        corpus = new Corpus(templateBases, contextCorpus, contextIndex, wordCounts.toFrequencies(),
+                minQuartileForReplacement);
+    }
+
+    /**
+     * Immutable snapshot of everything that is calculated from the templates and the context corpus
+     */
+    static final class Corpus {
+        private final AppendOnlyList<String> templateBases;
+        private final AppendOnlyList<String> contextCorpus;
+        private final ContextIndex contextIndex;
+        private final IWordFrequencies wc;
+        private final int maxReplacementWordFrequency;
+
+        private Corpus(List<String> templateBases, List<String> contextCorpus, ContextIndex contextIndex,
+                       IWordFrequencies wc, double minQuartileForReplacement) {
+            this.templateBases = AppendOnlyList.of(templateBases);
+            this.contextCorpus = AppendOnlyList.of(contextCorpus);
+            this.contextIndex = contextIndex;
+            this.wc = wc;
+            this.maxReplacementWordFrequency = wc.getQuartileCount(minQuartileForReplacement);
+        }
+    }
 
     /*-********************************************-*
      *  GENERATOR
@@ -66,17 +316,91 @@ public class DynamicTemplateGenerator implements IGenerator<String> {
             String dynamicTemplate,
             int numberOfContextLines,
             boolean consequtiveContextLines) {
+        return generate(dynamicTemplate, numberOfContextLines, consequtiveContextLines, ThreadLocalRandom.current());
+    }
+
+    /**
+     * Generates using the given source of randomness for picking the context lines and the replacements, such that
+     * the same random seed results in the same generation.
+     */
+    public Optional<String> generate(
+            String dynamicTemplate,
+            int numberOfContextLines,
+            boolean consequtiveContextLines,
+            Random random) {
+        return generate(dynamicTemplate, null, numberOfContextLines, consequtiveContextLines, random);
+    }
 
-        List<String> contextLines = pickContextLines(this.contextCorpus, numberOfContextLines, consequtiveContextLines);
+    /**
+     * Generates from a template that was already analysed using {@link #analyseTemplate(String)}, e.g. when
+     * generating from the same template multiple times
+     */
+    public Optional<String> generate(
+            AnalysedTemplate analysedTemplate,
+            int numberOfContextLines,
+            boolean consequtiveContextLines,
+            Random random) {
+        return generate(analysedTemplate.getTemplate(), analysedTemplate, numberOfContextLines,
+                consequtiveContextLines, random);
+    }
 
-        SimilarWordReplacer wordReplacer = new SimilarWordReplacer();
-        wordReplacer.addContextWords(contextLines);
+    private Optional<String> generate(
+            String dynamicTemplate,
+            AnalysedTemplate analysedTemplate,
+            int numberOfContextLines,
+            boolean consequtiveContextLines,
+            Random random) {
 
-        List<Replacer> replacers = wordReplacer.calculatePossibleReplacements(dynamicTemplate, replacementPicker);
-        List<Replacer> chosenReplacers = pickReplacers(calculateMinNumberOfReplacements(dynamicTemplate),
-                wc.getQuartileCount(minQuartileForReplacement), replacers);
+        long start = System.nanoTime();
+        Corpus corpus = this.corpus;
+        List<Integer> contextLineIndices = pickContextLineIndices(numberOfContextLines, consequtiveContextLines,
+                corpus.contextIndex.getNumberOfLines(), random);
+        start = recordStage(GenerationStage.CONTEXT_PICKING, start);
+
+        SimilarWordReplacer wordReplacer = createWordReplacer();
+        corpus.contextIndex.addLinesTo(contextLineIndices, wordReplacer);
+        start = recordStage(GenerationStage.CONTEXT_TAGGING, start);
+
+        return generate(corpus, dynamicTemplate, analysedTemplate, wordReplacer, random, start);
+    }
+
+    /**
+     * Generates using the context words of the given window, which is not changed. The window already contains its
+     * context lines, so the time spent moving it since the previous generation is reported as context tagging time.
+     * Windows created by {@link #createContextWindow(int, int)} generate using the word frequencies of the same
+     * snapshot of the corpus as their context words, even if the corpus was updated since.
+     */
+    public Optional<String> generate(String dynamicTemplate, ContextWindow contextWindow, Random random) {
+        long start = recordStage(GenerationStage.CONTEXT_PICKING, System.nanoTime());
+        metrics.recordStage(GenerationStage.CONTEXT_TAGGING, contextWindow.takeUpdateNanos());
+        Corpus corpus = contextWindow.getCorpus() != null ? contextWindow.getCorpus() : this.corpus;
+        return generate(corpus, dynamicTemplate, null, contextWindow.getWordReplacer(), random, start);
+    }
+
+    /**
+     * @param analysedTemplate analysis of the template, or null if it still needs to be analysed
+     * @param wordReplacer     word replacer already containing the context words
+     * @param start            start time of the template tagging stage
+     */
+    private Optional<String> generate(Corpus corpus, String dynamicTemplate, AnalysedTemplate analysedTemplate,
+                                      SimilarWordReplacer wordReplacer, Random random, long start) {
+        if (analysedTemplate == null) {
+            analysedTemplate = wordReplacer.analyseTemplate(dynamicTemplate);
+        }
+        Set<TaggedToken> tokens = new LinkedHashSet<>(wordReplacer.getReplaceableTaggedTokens(analysedTemplate));
+        start = recordStage(GenerationStage.TEMPLATE_TAGGING, start);
+
+        List<WordReplacement> replacements = wordReplacer.pickReplacements(tokens,
+                new ClosestWordReplacementPicker(corpus.wc), random);
+        List<WordReplacement> chosenReplacements = pickReplacements(corpus.wc,
+                calculateMinNumberOfReplacements(dynamicTemplate), corpus.maxReplacementWordFrequency, replacements);
+        start = recordStage(GenerationStage.REPLACER_PICKING, start);
+        if (chosenReplacements.isEmpty()) {
+            metrics.increment(GenerationCounter.EMPTY_REPLACERS);
+        }
 
-        String result = new Replacers(chosenReplacers).replace(dynamicTemplate);
+        String result = analysedTemplate.replace(chosenReplacements);
+        recordStage(GenerationStage.REPLACEMENT, start);
 
         return Optional.of(result);
     }
@@ -84,9 +408,16 @@ public class DynamicTemplateGenerator implements IGenerator<String> {
     public Optional<String> generate(
             int numberOfContextLines,
             boolean consequtiveContextLines) throws IOException {
+        return generate(numberOfContextLines, consequtiveContextLines, ThreadLocalRandom.current());
+    }
+
+    public Optional<String> generate(
+            int numberOfContextLines,
+            boolean consequtiveContextLines,
+            Random random) throws IOException {
 
-        String randomDynamicTemplate = Picker.pick(templateBases);
-        return generate(randomDynamicTemplate, numberOfContextLines, consequtiveContextLines);
+        String randomDynamicTemplate = RandomIndices.pick(corpus.templateBases, random);
+        return generate(randomDynamicTemplate, numberOfContextLines, consequtiveContextLines, random);
     }
 
 
@@ -99,85 +430,177 @@ public class DynamicTemplateGenerator implements IGenerator<String> {
         }
     }
 
+    /**
+     * Generates distinct variants of a template, each from its own random context lines, while analysing the template
+     * only once. Generations that are equal to the template or to an earlier variant are skipped.
+     *
+     * @return up to the given number of variants, or less if not enough distinct variants were found within
+     * {@value #TRIALS_PER_VARIANT} trials per variant or if the template can not be changed by any context
+     */
+    public List<String> generateVariants(String dynamicTemplate, int numberOfVariants, int numberOfContextLines,
+                                         boolean consequtiveContextLines, Random random) {
+        return generateVariants(dynamicTemplate, numberOfVariants, numberOfContextLines, consequtiveContextLines,
+                random, variant -> true);
+    }
+
+    /**
+     * @param accept decides whether a distinct variant can be part of the result, e.g. whether it is novel
+     */
+    List<String> generateVariants(String dynamicTemplate, int numberOfVariants, int numberOfContextLines,
+                                  boolean consequtiveContextLines, Random random, Predicate<String> accept) {
+        AnalysedTemplate analysedTemplate = analyseTemplate(dynamicTemplate);
+        Set<String> variants = new LinkedHashSet<>();
+        if (!isProducible(analysedTemplate)) {
+            return new ArrayList<>(variants);
+        }
+        long maxTrials = (long) numberOfVariants * TRIALS_PER_VARIANT;
+        for (long trial = 0; trial < maxTrials && variants.size() < numberOfVariants; trial++) {
+            Optional<String> generated = generate(analysedTemplate, numberOfContextLines, consequtiveContextLines,
+                    random);
+            if (generated.isPresent() && !generated.get().equals(dynamicTemplate)
+                    && !variants.contains(generated.get())) {
+                if (accept.test(generated.get())) {
+                    variants.add(generated.get());
+                } else {
+                    metrics.increment(GenerationCounter.REJECTED_DUPLICATES);
+                }
+            }
+        }
+        return new ArrayList<>(variants);
+    }
+
+    /**
+     * Lazily generates lines from random templates, only as many as the consumer of the stream asks for. The n-th
+     * line only depends on the seed and n, such that the stream can also be consumed in parallel.
+     */
+    public Stream<String> stream(int numberOfContextLines, boolean consequtiveContextLines, long seed) {
+        return GenerationSpliterator.stream(Long.MAX_VALUE, index -> {
+            Random random = ParallelBatchGenerator.createRandom(seed, index);
+            return generate(RandomIndices.pick(corpus.templateBases, random), numberOfContextLines,
+                    consequtiveContextLines, random);
+        });
+    }
+
+    /*-********************************************-*
+     *  TEMPLATE ANALYSIS
+     *-********************************************-*/
+
+    /**
+     * Analyses the given template, or takes its analysis from the template analysis cache
+     */
+    public AnalysedTemplate analyseTemplate(String dynamicTemplate) {
+        return createWordReplacer().analyseTemplate(dynamicTemplate);
+    }
+
+    /**
+     * Checks whether any token of the template could ever be replaced by another word, given all words of the
+     * context corpus. If not, every generation returns the template unchanged, so retrying is pointless.
+     */
+    public boolean isProducible(AnalysedTemplate analysedTemplate) {
+        ContextIndex contextIndex = corpus.contextIndex;
+        for (TaggedToken token : analysedTemplate.getReplaceableTokens()) {
+            if (rules.isName(token.getTags())) {
+                continue;
+            }
+            List<String> sampleWords = contextIndex.getSampleWords(token.getTagSetId());
+            if (sampleWords.size() > 1
+                    || (sampleWords.size() == 1 && !sampleWords.get(0).equalsIgnoreCase(token.getToken()))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /*-********************************************-*
      *  DECIDING THE CONTEXT
      *-********************************************-*/
 
+    private SimilarWordReplacer createWordReplacer() {
+        return new SimilarWordReplacer(rules, templateAnalysisCache);
+    }
+
+    /**
+     * Creates a window of consecutive context lines, which can be moved through the context corpus one line at a
+     * time and used to generate from using {@link #generate(String, ContextWindow, Random)}
+     */
+    public ContextWindow createContextWindow(int numberOfContextLines, int firstLine) {
+        Corpus corpus = this.corpus;
+        return new ContextWindow(corpus, corpus.contextIndex, createWordReplacer(), numberOfContextLines, firstLine);
+    }
+
+    /**
+     * Picks the indices of the lines of the context corpus to use. Their words are retrieved from the precomputed
+     * context index, such that the context lines themselves do not need to be analysed again.
+     */
     @NotNull
-    protected List<String> pickContextLines(List<String> contextCorpus, int numberOfContextLines, boolean consequtiveContextLines) {
+    protected List<Integer> pickContextLineIndices(int numberOfContextLines, boolean consequtiveContextLines,
+                                                   int contextCorpusSize, Random random) {
         if (consequtiveContextLines) {
-            return Picker.pickConsequtiveIndices(numberOfContextLines, contextCorpus.size()).stream()
-                    .map(contextCorpus::get).collect(Collectors.toList());
+            return RandomIndices.pickConsecutive(numberOfContextLines, contextCorpusSize, random);
         } else {
-            return Picker.pickRandomUniqueIndices(numberOfContextLines, contextCorpus.size()).stream()
-                    .map(contextCorpus::get).collect(Collectors.toList());
+            return RandomIndices.pickUnique(numberOfContextLines, contextCorpusSize, random);
         }
     }
 
+    /**
+     * Reports the time since the given start as the duration of the given stage
+     *
+     * @return the end time of the stage
+     */
+    private long recordStage(GenerationStage stage, long start) {
+        long end = System.nanoTime();
+        metrics.recordStage(stage, end - start);
+        return end;
+    }
+
     private int calculateMinNumberOfReplacements(String randomTweet) {
         return Math.max(1, randomTweet.length() / 25);
     }
 
     /**
+     * @param wc               Frequencies of the words of the corpus
      * @param minAmount        The minimum number of replacers to use
      * @param maxWordFrequency Maximum frequency of a word that is about to be replaced, such that common words still remain intact
-     * @param replacers        The list of potential replacers
-     * @return
+     * @param replacers        The list of potential replacements
+     * @return the replacements to apply, from the rarest replaced word to the most common one
      */
-    private List<Replacer> pickReplacers(int minAmount, int maxWordFrequency, Collection<Replacer> replacers) {
-        List<Replacer> sorted = new ArrayList<>(replacers);
-        sorted.sort(new ReplacerQuartileComparator());
+    private List<WordReplacement> pickReplacements(IWordFrequencies wc, int minAmount, int maxWordFrequency,
+                                                   Collection<WordReplacement> replacers) {
+        List<WordReplacement> sorted = new ArrayList<>(replacers);
+        sorted.sort(Comparator.comparingInt(replacer -> wc.getCount(replacer.getWord())));
 
-        List<Replacer> result = new ArrayList<>();
+        List<WordReplacement> result = new ArrayList<>();
 
-        for (Replacer replacer : sorted) {
-            if (result.size() < minAmount) {
-//                System.out.println("Adding to min amount:" + replacer + ", " + wc.getCount(replacer.getWord()) + " / "
-//                        + maxWordFrequency);
-                result.add(replacer);
-            } else if (wc.getCount(replacer.getWord()) < maxWordFrequency) {
-//                System.out.println("Adding quartile count:" + replacer + ", " + wc.getCount(replacer.getWord()) + " / "
-//                        + maxWordFrequency);
+        for (WordReplacement replacer : sorted) {
+            if (result.size() < minAmount || wc.getCount(replacer.getWord()) < maxWordFrequency) {
                 result.add(replacer);
-            } else {
-//                System.out.println("Not adding: " + replacer + ", " + wc.getCount(replacer.getWord()) + " / "
-//                        + maxWordFrequency);
             }
         }
         return result;
     }
 
     /*-********************************************-*
-     * COMPARATORS
+     * PICKERS
      *-********************************************-*/
-    private class ClosestWordCountComparator implements Comparator<String> {
-        private final String baseWord;
 
-        public ClosestWordCountComparator(String baseWord) {
-            this.baseWord = baseWord;
-        }
+    /**
+     * Picks the replacement having the frequency closest to the frequency of the replaced word
+     */
+    static class ClosestWordReplacementPicker implements IReplacementPicker {
+        private final IWordFrequencies wc;
 
-        @Override
-        public int compare(String word1, String word2) {
-            return Math.abs(wc.getCount(word1) - wc.getCount(baseWord))
-                    - Math.abs(wc.getCount(word2) - wc.getCount(baseWord));
+        ClosestWordReplacementPicker(IWordFrequencies wc) {
+            this.wc = wc;
         }
-    }
 
-    private class ReplacerQuartileComparator implements Comparator<Replacer> {
         @Override
-        public int compare(Replacer r1, Replacer r2) {
-            return wc.getCount(r1.getWord()) - wc.getCount(r2.getWord());
+        public String pickReplacement(String replacement, Bag<String> bag) {
+            return FrequencySortedWords.findClosest(bag.toMultiset().elementSet(), wc, wc.getCount(replacement), null);
         }
-    }
-
-    class ClosestWordReplacementPicker implements IReplacementPicker {
 
         @Override
-        public String pickReplacement(String replacement, Bag<String> bag) {
-            Comparator<String> comp = new ClosestWordCountComparator(replacement);
-
-            return bag.toMultiset().stream().min(comp).get();
+        public String pickReplacement(String replacement, ReplacementCandidates candidates, Random random) {
+            return candidates.getClosest(wc, wc.getCount(replacement), replacement);
         }
     }
 
@@ -190,7 +613,40 @@ public class DynamicTemplateGenerator implements IGenerator<String> {
     }
 
     protected List<String> getTemplateBases() {
-        return templateBases;
+        return corpus.templateBases;
+    }
+
+    protected List<String> getContextCorpus() {
+        return corpus.contextCorpus;
+    }
+
+    protected ContextIndex getContextIndex() {
+        return corpus.contextIndex;
+    }
+
+    protected IWordFrequencies getWordFrequencies() {
+        return corpus.wc;
+    }
+
+    public ReplacementRules getRules() {
+        return rules;
+    }
+
+    public TemplateAnalysisCache getTemplateAnalysisCache() {
+        return templateAnalysisCache;
+    }
+
+    public IGenerationMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Reports the stages of every generation, and the hits and misses of the template analysis cache, to the given
+     * metrics
+     */
+    public void setMetrics(IGenerationMetrics metrics) {
+        this.metrics = metrics;
+        templateAnalysisCache.setMetrics(metrics);
     }
 
 }
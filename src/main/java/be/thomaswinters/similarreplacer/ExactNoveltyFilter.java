@@ -0,0 +1,21 @@
+package be.thomaswinters.similarreplacer;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Rejects texts that are exactly equal to a line of the corpus
+ */
+public class ExactNoveltyFilter implements INoveltyFilter {
+    private final Set<String> corpus;
+
+    public ExactNoveltyFilter(Collection<String> corpus) {
+        this.corpus = new HashSet<>(corpus);
+    }
+
+    @Override
+    public boolean isNovel(String text) {
+        return !corpus.contains(text);
+    }
+}
@@ -0,0 +1,119 @@
+package be.thomaswinters.similarreplacer;
+
+import be.thomaswinters.markov.model.data.bags.Bag;
+
+import java.util.Arrays;
+
+/**
+ * The distinct words of a bag, sorted by their frequency in the corpus. The counts are kept in a primitive array, such
+ * that the word with the closest frequency to a given count is found using a binary search without allocating.
+ * Sorting takes more time than scanning the words once, so it only pays off for bags of which the closest word is
+ * looked up several times, see {@link #findClosest(Iterable, IWordFrequencies, int, String)}.
+ */
+public class FrequencySortedWords {
+    private final String[] words;
+    private final int[] counts;
+    /**
+     * Position of every word in the bag, to break ties the same way as picking the first closest word of the bag
+     */
+    private final int[] bagPositions;
+
+    public FrequencySortedWords(Bag<String> bag, IWordFrequencies wc) {
+        String[] unsortedWords = bag.toMultiset().elementSet().toArray(new String[0]);
+
+        // Sorts the count and the position of every word as one primitive key, such that words with equal counts
+        // keep the order of the bag
+        long[] keys = new long[unsortedWords.length];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = (long) wc.getCount(unsortedWords[i]) << 32 | i;
+        }
+        Arrays.sort(keys);
+        this.words = new String[keys.length];
+        this.counts = new int[keys.length];
+        this.bagPositions = new int[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            bagPositions[i] = (int) keys[i];
+            counts[i] = (int) (keys[i] >>> 32);
+            words[i] = unsortedWords[bagPositions[i]];
+        }
+    }
+
+    /**
+     * Finds the closest word by scanning all words once, which is faster than sorting them if only one word is looked
+     * up
+     *
+     * @param distinctWords the distinct words of a bag, in the order of the bag
+     * @return the same word as {@link #getClosest(int, String)} of the words sorted using the given frequencies
+     */
+    public static String findClosest(Iterable<String> distinctWords, IWordFrequencies wc, int count,
+                                     String excluded) {
+        String closest = null;
+        long closestDistance = Long.MAX_VALUE;
+        for (String word : distinctWords) {
+            long distance = Math.abs((long) wc.getCount(word) - count);
+            if (distance < closestDistance && !word.equals(excluded)) {
+                closest = word;
+                closestDistance = distance;
+            }
+        }
+        return closest;
+    }
+
+    /**
+     * @param count    the count to get closest to
+     * @param excluded word that should not be returned, or null
+     * @return the word having the count closest to the given count (the first one of the bag if several are equally
+     * close), or null if there is no word other than the excluded word
+     */
+    public String getClosest(int count, String excluded) {
+        // Closest word with a count of at least the given count
+        int right = skipExcluded(findFirstWithCountAtLeast(count), excluded);
+
+        // First word of the bag having the highest count below the given count
+        int left = findFirstWithCountAtLeast(count) - 1;
+        while (left >= 0 && words[left].equals(excluded)) {
+            left--;
+        }
+        if (left >= 0) {
+            left = skipExcluded(findFirstWithCountAtLeast(counts[left]), excluded);
+        }
+
+        if (left < 0) {
+            return right < words.length ? words[right] : null;
+        }
+        if (right >= words.length) {
+            return words[left];
+        }
+        int leftDistance = count - counts[left];
+        int rightDistance = counts[right] - count;
+        if (leftDistance < rightDistance || (leftDistance == rightDistance && bagPositions[left] < bagPositions[right])) {
+            return words[left];
+        }
+        return words[right];
+    }
+
+    private int skipExcluded(int index, String excluded) {
+        while (index < words.length && words[index].equals(excluded)) {
+            index++;
+        }
+        return index;
+    }
+
+    private int findFirstWithCountAtLeast(int count) {
+        int low = 0;
+        int high = counts.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (counts[middle] < count) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    public int size() {
+        return words.length;
+    }
+}
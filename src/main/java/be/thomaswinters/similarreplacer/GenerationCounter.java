@@ -0,0 +1,42 @@
+package be.thomaswinters.similarreplacer;
+
+import java.util.Locale;
+
+/**
+ * Events counted while generating
+ */
+public enum GenerationCounter {
+    /**
+     * Times a dynamic template was generated from, including retries
+     */
+    TRIALS,
+    /**
+     * Lines for which a generation was accepted
+     */
+    GENERATED_LINES,
+    /**
+     * Generations that were rejected because they were already in the corpus
+     */
+    REJECTED_DUPLICATES,
+    /**
+     * Generations for which no replacement could be made, such that the template was returned unchanged
+     */
+    EMPTY_REPLACERS,
+    /**
+     * Templates that were not tried because they can not result in a novel line
+     */
+    UNPRODUCIBLE_LINES,
+    /**
+     * Templates for which no novel line was generated within the maximum number of trials
+     */
+    EXHAUSTED_LINES,
+    TEMPLATE_CACHE_HITS,
+    TEMPLATE_CACHE_MISSES;
+
+    /**
+     * @return the name of this counter as a metric name, e.g. "rejected_duplicates"
+     */
+    public String getMetricName() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+}
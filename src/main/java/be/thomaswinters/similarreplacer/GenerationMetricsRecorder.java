@@ -0,0 +1,102 @@
+package be.thomaswinters.similarreplacer;
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps all generation metrics in memory: a latency histogram per stage, a histogram of the trials per output line,
+ * and a total per counter. {@link #snapshot()} exports them as flat metric names, such that they can be registered as
+ * gauges in a metrics registry or logged.
+ */
+public class GenerationMetricsRecorder implements IGenerationMetrics {
+    private static final String PREFIX = "generation.";
+
+    private final Map<GenerationStage, LatencyHistogram> stageLatencies = new EnumMap<>(GenerationStage.class);
+    private final Map<GenerationCounter, LongAdder> counters = new EnumMap<>(GenerationCounter.class);
+    private final LatencyHistogram trialsPerLine = new LatencyHistogram();
+
+    public GenerationMetricsRecorder() {
+        for (GenerationStage stage : GenerationStage.values()) {
+            stageLatencies.put(stage, new LatencyHistogram());
+        }
+        for (GenerationCounter counter : GenerationCounter.values()) {
+            counters.put(counter, new LongAdder());
+        }
+    }
+
+    /*-********************************************-*
+     *  RECORDING
+     *-********************************************-*/
+
+    @Override
+    public void recordStage(GenerationStage stage, long durationNanos) {
+        stageLatencies.get(stage).record(durationNanos);
+    }
+
+    @Override
+    public void increment(GenerationCounter counter, long amount) {
+        counters.get(counter).add(amount);
+    }
+
+    @Override
+    public void recordTrialsForLine(int trials) {
+        IGenerationMetrics.super.recordTrialsForLine(trials);
+        trialsPerLine.record(trials);
+    }
+
+    /*-********************************************-*
+     *  ACCESS
+     *-********************************************-*/
+
+    public LatencyHistogram getLatencies(GenerationStage stage) {
+        return stageLatencies.get(stage);
+    }
+
+    public long getCount(GenerationCounter counter) {
+        return counters.get(counter).sum();
+    }
+
+    public LatencyHistogram getTrialsPerLine() {
+        return trialsPerLine;
+    }
+
+    /**
+     * @return the current value of every metric, with durations in nanoseconds, e.g.
+     * "generation.stage.template_tagging.p99" or "generation.counter.rejected_duplicates"
+     */
+    public Map<String, Number> snapshot() {
+        Map<String, Number> snapshot = new LinkedHashMap<>();
+        for (GenerationStage stage : GenerationStage.values()) {
+            putHistogram(snapshot, PREFIX + "stage." + stage.getMetricName(), stageLatencies.get(stage));
+        }
+        putHistogram(snapshot, PREFIX + "trials_per_line", trialsPerLine);
+        for (GenerationCounter counter : GenerationCounter.values()) {
+            snapshot.put(PREFIX + "counter." + counter.getMetricName(), getCount(counter));
+        }
+        return snapshot;
+    }
+
+    private static void putHistogram(Map<String, Number> snapshot, String name, LatencyHistogram histogram) {
+        snapshot.put(name + ".count", histogram.getCount());
+        snapshot.put(name + ".total", histogram.getTotal());
+        snapshot.put(name + ".mean", histogram.getMean());
+        snapshot.put(name + ".p50", histogram.getPercentile(0.5));
+        snapshot.put(name + ".p99", histogram.getPercentile(0.99));
+        snapshot.put(name + ".max", histogram.getPercentile(1));
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder result = new StringBuilder();
+        for (GenerationStage stage : GenerationStage.values()) {
+            result.append(stage.getMetricName()).append(" (ns): ").append(stageLatencies.get(stage)).append('\n');
+        }
+        result.append("trials per line: ").append(trialsPerLine).append('\n');
+        for (GenerationCounter counter : GenerationCounter.values()) {
+            result.append(counter.getMetricName()).append(": ").append(getCount(counter)).append('\n');
+        }
+        return result.toString();
+    }
+}
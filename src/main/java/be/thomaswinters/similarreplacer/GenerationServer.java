@@ -0,0 +1,383 @@
+package be.thomaswinters.similarreplacer;
+
+import com.google.common.base.Charsets;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Keeps a generator with its tagged corpus, indices and LanguageTool instances in memory, and generates lines for
+ * requests over HTTP, such that jobs do not each pay for loading the corpus. Templates of concurrent requests are
+ * queued and generated together in batches on the threads of a {@link ParallelBatchGenerator}. When more templates
+ * are waiting than the queue capacity, requests are rejected with status 503 instead of queueing without bound.
+ * Requests are answered once all their templates are generated, without a request thread waiting for them, so the
+ * queue capacity also bounds the number of requests being served.
+ * <p>
+ * Endpoints:
+ * <ul>
+ * <li>POST /generate with a JSON body like <code>{"templates": ["..."], "seed": 7}</code>, where the seed is optional
+ * and makes the request reproducible: the n-th template gets the same random generator as the n-th line of the
+ * executor with the same seed. Responds with the result of every template, in order.</li>
+ * <li>GET /stats for the template analysis cache and the generation metrics.</li>
+ * </ul>
+ */
+public class GenerationServer implements AutoCloseable {
+
+    /*-********************************************-*
+     * OPTIONS
+     *-********************************************-*/
+
+    private static final String PORT_OPTION = "port";
+    /**
+     * Maximum number of templates generated in one batch
+     */
+    private static final String BATCH_SIZE_OPTION = "batch-size";
+    /**
+     * Maximum number of templates waiting to be generated before requests get rejected
+     */
+    private static final String QUEUE_CAPACITY_OPTION = "queue-capacity";
+    private static final String MAX_TRIALS_OPTION = "max-trials";
+
+    private static final int DEFAULT_PORT = 8080;
+    private static final int DEFAULT_BATCH_SIZE = 64;
+    private static final int DEFAULT_QUEUE_CAPACITY = 1024;
+
+    /**
+     * Time the dispatcher waits for a template before checking whether the server is closed
+     */
+    private static final long POLL_MILLIS = 100;
+
+    /*-********************************************-*/
+
+    private final Gson gson = new Gson();
+    private final DynamicTemplateGenerator generator;
+    private final NovelLineGenerator novelLineGenerator;
+    private final GenerationMetricsRecorder metrics = new GenerationMetricsRecorder();
+    private final ParallelBatchGenerator batchGenerator;
+    private final int batchSize;
+    private final int queueCapacity;
+
+    private final BlockingQueue<PendingLine> queue = new LinkedBlockingQueue<>();
+    /**
+     * One permit for every template that can still be queued
+     */
+    private final Semaphore capacity;
+
+    private final HttpServer server;
+    private final ExecutorService requestExecutor;
+    private final Thread dispatcher;
+    /**
+     * Makes checking whether the server is running and queueing templates atomic, such that no template gets queued
+     * after the dispatcher failed the remaining ones
+     */
+    private final Object queueLock = new Object();
+    private volatile boolean running = true;
+    private long batchedLines;
+
+    /*-********************************************-*
+     *  Construction
+     *-********************************************-*/
+
+    /**
+     * @param address       address to listen on, which should be a local address since requests are not authenticated
+     * @param parallelism   number of threads to generate with
+     * @param batchSize     maximum number of templates to generate in one batch
+     * @param queueCapacity maximum number of templates waiting to be generated
+     * @param seed          seed for the templates of requests that do not specify a seed
+     */
+    public GenerationServer(DynamicTemplateGenerator generator, NovelLineGenerator novelLineGenerator,
+                            InetSocketAddress address, int parallelism, int batchSize, int queueCapacity, long seed)
+            throws IOException {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size should be at least 1, but was " + batchSize);
+        }
+        this.generator = generator;
+        this.novelLineGenerator = novelLineGenerator;
+        this.batchGenerator = new ParallelBatchGenerator(parallelism, seed);
+        this.batchSize = batchSize;
+        this.queueCapacity = queueCapacity;
+        this.capacity = new Semaphore(queueCapacity);
+        generator.setMetrics(metrics);
+
+        this.server = HttpServer.create(address, 0);
+        // Request threads only parse requests and write responses, so they never wait for generations
+        this.requestExecutor = Executors.newFixedThreadPool(Math.max(1, parallelism));
+        server.setExecutor(requestExecutor);
+        server.createContext("/generate", this::handleGenerate);
+        server.createContext("/stats", this::handleStats);
+        this.dispatcher = new Thread(this::dispatch, "generation-dispatcher");
+    }
+
+    public void start() {
+        dispatcher.start();
+        server.start();
+    }
+
+    @Override
+    public void close() {
+        synchronized (queueLock) {
+            running = false;
+        }
+        server.stop(0);
+        try {
+            dispatcher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        batchGenerator.close();
+        requestExecutor.shutdown();
+    }
+
+    public InetSocketAddress getAddress() {
+        return server.getAddress();
+    }
+
+    /*-********************************************-*
+     *  BATCHING
+     *-********************************************-*/
+
+    /**
+     * A template waiting to be generated
+     */
+    private static class PendingLine {
+        private final String template;
+        /**
+         * Random generator requested by the client, or null to use one of the batch
+         */
+        private final Random random;
+        private final CompletableFuture<NovelLineGenerator.Result> result = new CompletableFuture<>();
+
+        private PendingLine(String template, Random random) {
+            this.template = template;
+            this.random = random;
+        }
+    }
+
+    /**
+     * Generates the queued templates in batches of all templates waiting at that moment, up to the batch size
+     */
+    private void dispatch() {
+        while (running) {
+            PendingLine first;
+            try {
+                first = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                break;
+            }
+            if (first == null) {
+                continue;
+            }
+            List<PendingLine> batch = new ArrayList<>(batchSize);
+            batch.add(first);
+            queue.drainTo(batch, batchSize - 1);
+            try {
+                List<NovelLineGenerator.Result> results = batchGenerator.generate(batch, batchedLines,
+                        (pendingLine, random) -> novelLineGenerator.generate(pendingLine.template,
+                                pendingLine.random != null ? pendingLine.random : random));
+                for (int i = 0; i < batch.size(); i++) {
+                    batch.get(i).result.complete(results.get(i));
+                }
+            } catch (RuntimeException e) {
+                batch.forEach(pendingLine -> pendingLine.result.completeExceptionally(e));
+            } finally {
+                batchedLines += batch.size();
+                capacity.release(batch.size());
+            }
+        }
+
+        // Fail the templates that were still waiting
+        List<PendingLine> remaining = new ArrayList<>();
+        queue.drainTo(remaining);
+        remaining.forEach(pendingLine ->
+                pendingLine.result.completeExceptionally(new IllegalStateException("Server closed")));
+    }
+
+    /**
+     * @return the pending lines of the templates, or an empty optional if the queue has no room for all of them
+     */
+    private Optional<List<PendingLine>> enqueue(List<String> templates, Long seed) {
+        if (!capacity.tryAcquire(templates.size())) {
+            return Optional.empty();
+        }
+        List<PendingLine> pendingLines = new ArrayList<>(templates.size());
+        for (int i = 0; i < templates.size(); i++) {
+            Random random = seed != null ? ParallelBatchGenerator.createRandom(seed, i) : null;
+            pendingLines.add(new PendingLine(templates.get(i), random));
+        }
+        synchronized (queueLock) {
+            if (!running) {
+                capacity.release(templates.size());
+                return Optional.empty();
+            }
+            queue.addAll(pendingLines);
+        }
+        return Optional.of(pendingLines);
+    }
+
+    /*-********************************************-*
+     *  HTTP
+     *-********************************************-*/
+
+    /**
+     * Body of a generation request
+     */
+    private static class GenerationRequest {
+        private List<String> templates;
+        private Long seed;
+    }
+
+    /**
+     * Result of one template of a generation request
+     */
+    private static class LineResponse {
+        private final String template;
+        private final String status;
+        private final String line;
+        private final int trials;
+
+        private LineResponse(NovelLineGenerator.Result result) {
+            this.template = result.getTemplate();
+            this.status = result.getStatus().name().toLowerCase(Locale.ROOT);
+            this.line = result.getLine().orElse(null);
+            this.trials = result.getTrials();
+        }
+    }
+
+    private void handleGenerate(HttpExchange exchange) throws IOException {
+        boolean answeredLater = false;
+        try {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                respond(exchange, 405, Collections.singletonMap("error", "Use POST"));
+                return;
+            }
+            GenerationRequest request;
+            try (Reader reader = new InputStreamReader(exchange.getRequestBody(), Charsets.UTF_8)) {
+                request = gson.fromJson(reader, GenerationRequest.class);
+            } catch (JsonParseException e) {
+                respond(exchange, 400, Collections.singletonMap("error", "Invalid JSON: " + e.getMessage()));
+                return;
+            }
+            if (request == null || request.templates == null || request.templates.contains(null)) {
+                respond(exchange, 400, Collections.singletonMap("error", "Expected a list of templates"));
+                return;
+            }
+            if (request.templates.size() > queueCapacity) {
+                respond(exchange, 413, Collections.singletonMap("error",
+                        "At most " + queueCapacity + " templates can be generated in one request"));
+                return;
+            }
+
+            Optional<List<PendingLine>> pendingLines = enqueue(request.templates, request.seed);
+            if (!pendingLines.isPresent()) {
+                exchange.getResponseHeaders().set("Retry-After", "1");
+                respond(exchange, 503, Collections.singletonMap("error", "Too many templates waiting"));
+                return;
+            }
+            CompletableFuture.allOf(pendingLines.get().stream().map(pendingLine -> pendingLine.result)
+                    .toArray(CompletableFuture[]::new))
+                    .whenCompleteAsync((done, failure) -> respondResults(exchange, pendingLines.get()),
+                            requestExecutor);
+            answeredLater = true;
+        } finally {
+            if (!answeredLater) {
+                exchange.close();
+            }
+        }
+    }
+
+    /**
+     * Responds with the results of the given pending lines, which are all completed
+     */
+    private void respondResults(HttpExchange exchange, List<PendingLine> pendingLines) {
+        try {
+            List<LineResponse> results = new ArrayList<>(pendingLines.size());
+            for (PendingLine pendingLine : pendingLines) {
+                results.add(new LineResponse(pendingLine.result.join()));
+            }
+            respond(exchange, 200, Collections.singletonMap("results", results));
+        } catch (CompletionException e) {
+            try {
+                respond(exchange, 500, Collections.singletonMap("error", String.valueOf(e.getCause())));
+            } catch (IOException ignored) {
+                // The client is gone, so there is no one to tell
+            }
+        } catch (IOException ignored) {
+            // The client is gone, so there is no one to tell
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void handleStats(HttpExchange exchange) throws IOException {
+        try {
+            TemplateAnalysisCache cache = generator.getTemplateAnalysisCache();
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("queued", queue.size());
+            stats.put("template_cache.hits", cache.getHitCount());
+            stats.put("template_cache.misses", cache.getMissCount());
+            stats.put("template_cache.size", cache.size());
+            stats.putAll(metrics.snapshot());
+            respond(exchange, 200, stats);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void respond(HttpExchange exchange, int status, Object body) throws IOException {
+        byte[] bytes = gson.toJson(body).getBytes(Charsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream outputStream = exchange.getResponseBody()) {
+            outputStream.write(bytes);
+        }
+    }
+
+    /*-********************************************-*
+     *  EXECUTION
+     *-********************************************-*/
+
+    /**
+     * Arguments: corpus file, followed by any of the options of {@link DynamicTemplateExecutor} that apply to loading
+     * the corpus and generating, and --port, --batch-size, --queue-capacity and --max-trials. Only listens on the
+     * loopback address.
+     */
+    public static void main(String[] args) throws IOException {
+        List<String> arguments = new ArrayList<>();
+        Map<String, String> options = new HashMap<>();
+        DynamicTemplateExecutor.parseArguments(args, arguments, options);
+
+        List<String> corpus = JsonCorpusReader.readAll(DynamicTemplateExecutor.openCorpus(arguments.get(0)));
+        DynamicTemplateGenerator generator = DynamicTemplateExecutor.createGenerator(options, corpus);
+        NovelLineGenerator novelLineGenerator = new NovelLineGenerator(generator,
+                DynamicTemplateExecutor.createNoveltyFilter(options, corpus),
+                getIntOption(options, MAX_TRIALS_OPTION, DynamicTemplateExecutor.DEFAULT_MAX_NUMBER_OF_TRIALS),
+                DynamicTemplateExecutor.NUMBER_OF_CONTEXT_LINES);
+        long seed = options.containsKey(DynamicTemplateExecutor.SEED_OPTION)
+                ? Long.parseLong(options.get(DynamicTemplateExecutor.SEED_OPTION))
+                : new Random().nextLong();
+
+        GenerationServer server = new GenerationServer(generator, novelLineGenerator,
+                new InetSocketAddress(InetAddress.getLoopbackAddress(),
+                        getIntOption(options, PORT_OPTION, DEFAULT_PORT)),
+                getIntOption(options, DynamicTemplateExecutor.PARALLELISM_OPTION,
+                        Runtime.getRuntime().availableProcessors()),
+                getIntOption(options, BATCH_SIZE_OPTION, DEFAULT_BATCH_SIZE),
+                getIntOption(options, QUEUE_CAPACITY_OPTION, DEFAULT_QUEUE_CAPACITY),
+                seed);
+        Runtime.getRuntime().addShutdownHook(new Thread(server::close));
+        server.start();
+        System.out.println("Listening on http://" + server.getAddress().getHostString() + ":"
+                + server.getAddress().getPort());
+    }
+
+    private static int getIntOption(Map<String, String> options, String option, int defaultValue) {
+        return options.containsKey(option) ? Integer.parseInt(options.get(option)) : defaultValue;
+    }
+}
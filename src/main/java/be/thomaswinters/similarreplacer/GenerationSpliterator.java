@@ -0,0 +1,99 @@
+package be.thomaswinters.similarreplacer;
+
+import java.util.Optional;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.function.LongFunction;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Lazily generates the lines of a range of indices, only when a consumer asks for the next line. Indices for which no
+ * line is generated are skipped. Since every line only depends on its index, e.g. through
+ * {@link ParallelBatchGenerator#createRandom(long, long)}, the range can be split in halves for parallel streams
+ * without changing which lines are generated, and short-circuiting operations such as {@link Stream#limit(long)}
+ * stop generating as soon as they have enough lines.
+ * <p>
+ * To not search forever when (almost) no index results in a line, e.g. for an unbounded range of templates that all
+ * fail, the spliterator ends once it skipped a given number of indices in a row. Every part of a split spliterator
+ * counts the skipped indices of its own range.
+ */
+class GenerationSpliterator implements Spliterator<String> {
+    private final LongFunction<Optional<String>> lineGenerator;
+    private long index;
+    private final long fence;
+    private final long maxConsecutiveSkips;
+
+    /**
+     * @param origin              first index to generate (inclusive)
+     * @param fence               last index to generate (exclusive)
+     * @param maxConsecutiveSkips number of indices in a row without a line after which no more lines are generated
+     * @param lineGenerator       generates the line for an index, if possible
+     */
+    GenerationSpliterator(long origin, long fence, long maxConsecutiveSkips,
+                          LongFunction<Optional<String>> lineGenerator) {
+        if (maxConsecutiveSkips < 1) {
+            throw new IllegalArgumentException("Max consecutive skips should be at least 1, but was "
+                    + maxConsecutiveSkips);
+        }
+        this.index = origin;
+        this.fence = fence;
+        this.maxConsecutiveSkips = maxConsecutiveSkips;
+        this.lineGenerator = lineGenerator;
+    }
+
+    /**
+     * @return an ordered stream of the lines generated for the indices from 0 (inclusive) up to the fence (exclusive)
+     */
+    static Stream<String> stream(long fence, LongFunction<Optional<String>> lineGenerator) {
+        return stream(fence, Long.MAX_VALUE, lineGenerator);
+    }
+
+    /**
+     * @return an ordered stream of the lines generated for the indices from 0 (inclusive) up to the fence (exclusive),
+     * which ends early once the given number of indices in a row did not result in a line
+     */
+    static Stream<String> stream(long fence, long maxConsecutiveSkips, LongFunction<Optional<String>> lineGenerator) {
+        return StreamSupport.stream(new GenerationSpliterator(0, fence, maxConsecutiveSkips, lineGenerator), false);
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super String> action) {
+        long skipped = 0;
+        while (index < fence) {
+            Optional<String> line = lineGenerator.apply(index++);
+            if (line.isPresent()) {
+                action.accept(line.get());
+                return true;
+            }
+            if (++skipped >= maxConsecutiveSkips) {
+                index = fence;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public Spliterator<String> trySplit() {
+        long middle = index + (fence - index) / 2;
+        if (middle <= index) {
+            return null;
+        }
+        GenerationSpliterator prefix = new GenerationSpliterator(index, middle, maxConsecutiveSkips, lineGenerator);
+        index = middle;
+        return prefix;
+    }
+
+    /**
+     * @return the number of remaining indices, which is an upper bound since indices without a line are skipped
+     */
+    @Override
+    public long estimateSize() {
+        return fence - index;
+    }
+
+    @Override
+    public int characteristics() {
+        return ORDERED | NONNULL | IMMUTABLE;
+    }
+}
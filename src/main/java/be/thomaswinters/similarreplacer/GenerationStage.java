@@ -0,0 +1,36 @@
+package be.thomaswinters.similarreplacer;
+
+import java.util.Locale;
+
+/**
+ * Stages of generating a text from a dynamic template, in the order in which they happen
+ */
+public enum GenerationStage {
+    /**
+     * Picking the lines of the context corpus to take replacements from
+     */
+    CONTEXT_PICKING,
+    /**
+     * Collecting the tagged words of the picked context lines
+     */
+    CONTEXT_TAGGING,
+    /**
+     * Tagging the dynamic template to find its replaceable tokens
+     */
+    TEMPLATE_TAGGING,
+    /**
+     * Picking a replacement for every replaceable token, and choosing which ones to apply
+     */
+    REPLACER_PICKING,
+    /**
+     * Applying the chosen replacements to the dynamic template
+     */
+    REPLACEMENT;
+
+    /**
+     * @return the name of this stage as a metric name, e.g. "template_tagging"
+     */
+    public String getMetricName() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+}
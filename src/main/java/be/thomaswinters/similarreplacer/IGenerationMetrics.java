@@ -0,0 +1,40 @@
+package be.thomaswinters.similarreplacer;
+
+/**
+ * Receives the duration of every stage of a generation and counts of generation events. Implementations are called
+ * from all generating threads at the same time, so they should be thread-safe and cheap. This is the place to bridge
+ * to a metrics library, e.g. by recording every stage in a Micrometer timer named after
+ * {@link GenerationStage#getMetricName()}. {@link GenerationMetricsRecorder} keeps the metrics in memory, and
+ * {@link JfrGenerationMetrics} emits them as Java Flight Recorder events.
+ */
+public interface IGenerationMetrics {
+
+    /**
+     * Ignores all metrics
+     */
+    IGenerationMetrics NONE = new IGenerationMetrics() {
+        @Override
+        public void recordStage(GenerationStage stage, long durationNanos) {
+        }
+
+        @Override
+        public void increment(GenerationCounter counter, long amount) {
+        }
+    };
+
+    void recordStage(GenerationStage stage, long durationNanos);
+
+    void increment(GenerationCounter counter, long amount);
+
+    default void increment(GenerationCounter counter) {
+        increment(counter, 1);
+    }
+
+    /**
+     * Records how many trials it took to generate a single output line
+     */
+    default void recordTrialsForLine(int trials) {
+        increment(GenerationCounter.TRIALS, trials);
+        increment(GenerationCounter.GENERATED_LINES);
+    }
+}
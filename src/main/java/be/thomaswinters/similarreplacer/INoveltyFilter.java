@@ -0,0 +1,9 @@
+package be.thomaswinters.similarreplacer;
+
+/**
+ * Decides whether a generated text is new, i.e. not (nearly) a copy of a line of the corpus
+ */
+public interface INoveltyFilter {
+
+    boolean isNovel(String text);
+}
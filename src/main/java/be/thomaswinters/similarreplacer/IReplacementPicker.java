@@ -2,7 +2,25 @@ package be.thomaswinters.similarreplacer;
 
 import be.thomaswinters.markov.model.data.bags.Bag;
 
+import java.util.Random;
+
 public interface IReplacementPicker {
 
     public String pickReplacement(String replacement, Bag<String> bag);
+
+    /**
+     * Picks a replacement using the given source of randomness, such that generations can be reproduced and do not
+     * have to share a random generator between threads
+     */
+    default String pickReplacement(String replacement, Bag<String> bag, Random random) {
+        return pickReplacement(replacement, bag);
+    }
+
+    /**
+     * Picks a replacement for the given word from the given candidates, other than the word itself. Pickers can
+     * override this to use the structures the candidates precompute instead of a bag excluding the word.
+     */
+    default String pickReplacement(String replacement, ReplacementCandidates candidates, Random random) {
+        return pickReplacement(replacement, candidates.without(replacement), random);
+    }
 }
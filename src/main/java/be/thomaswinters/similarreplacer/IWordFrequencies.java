@@ -0,0 +1,15 @@
+package be.thomaswinters.similarreplacer;
+
+/**
+ * Frequencies of the words of a corpus, used to decide which words are rare enough to be replaced
+ */
+public interface IWordFrequencies {
+
+    int getCount(String word);
+
+    /**
+     * @param quartile fraction of the words (from rarest to most common) to look at
+     * @return the count of the word at the given quartile of the frequency distribution
+     */
+    int getQuartileCount(double quartile);
+}
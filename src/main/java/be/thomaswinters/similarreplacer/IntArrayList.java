@@ -0,0 +1,41 @@
+package be.thomaswinters.similarreplacer;
+
+import java.util.Arrays;
+
+/**
+ * Minimal growable list of primitive ints, used to build the flat arrays of the indices without boxing.
+ */
+class IntArrayList {
+    private int[] values;
+    private int size;
+
+    IntArrayList() {
+        this(16);
+    }
+
+    IntArrayList(int initialCapacity) {
+        this.values = new int[Math.max(1, initialCapacity)];
+    }
+
+    void add(int value) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, values.length * 2);
+        }
+        values[size++] = value;
+    }
+
+    int get(int index) {
+        if (index >= size) {
+            throw new IndexOutOfBoundsException(index + " >= " + size);
+        }
+        return values[index];
+    }
+
+    int size() {
+        return size;
+    }
+
+    int[] toArray() {
+        return Arrays.copyOf(values, size);
+    }
+}
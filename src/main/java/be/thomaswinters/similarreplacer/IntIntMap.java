@@ -0,0 +1,112 @@
+package be.thomaswinters.similarreplacer;
+
+import java.util.Arrays;
+
+/**
+ * Minimal hash map from ints to non-negative ints, using open addressing in primitive arrays, such that neither the
+ * keys nor the values are boxed.
+ */
+class IntIntMap {
+    private static final int NO_VALUE = -1;
+
+    private int[] keys;
+    /**
+     * Value of every slot, or {@link #NO_VALUE} if the slot is empty
+     */
+    private int[] values;
+    private int size;
+
+    IntIntMap() {
+        this(8);
+    }
+
+    IntIntMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(2, expectedSize * 2) - 1) << 1;
+        this.keys = new int[capacity];
+        this.values = new int[capacity];
+        Arrays.fill(values, NO_VALUE);
+    }
+
+    /**
+     * @return the value of the given key, or -1 if there is none
+     */
+    int get(int key) {
+        int mask = keys.length - 1;
+        for (int slot = hash(key) & mask; values[slot] != NO_VALUE; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                return values[slot];
+            }
+        }
+        return NO_VALUE;
+    }
+
+    /**
+     * @param value non-negative value
+     */
+    void put(int key, int value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Value should not be negative, but was " + value);
+        }
+        int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        while (values[slot] != NO_VALUE && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        if (values[slot] == NO_VALUE) {
+            if ((size + 1) * 2 > keys.length) {
+                grow();
+                put(key, value);
+                return;
+            }
+            size++;
+        }
+        keys[slot] = key;
+        values[slot] = value;
+    }
+
+    void remove(int key) {
+        int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        while (values[slot] != NO_VALUE && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        if (values[slot] == NO_VALUE) {
+            return;
+        }
+        size--;
+        // Shifts the following entries of the run back, such that lookups never stop at the emptied slot too early
+        int empty = slot;
+        for (int next = (empty + 1) & mask; values[next] != NO_VALUE; next = (next + 1) & mask) {
+            int home = hash(keys[next]) & mask;
+            if (((next - home) & mask) >= ((next - empty) & mask)) {
+                keys[empty] = keys[next];
+                values[empty] = values[next];
+                empty = next;
+            }
+        }
+        values[empty] = NO_VALUE;
+    }
+
+    int size() {
+        return size;
+    }
+
+    private void grow() {
+        int[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new int[oldKeys.length * 2];
+        values = new int[oldValues.length * 2];
+        Arrays.fill(values, NO_VALUE);
+        size = 0;
+        for (int slot = 0; slot < oldKeys.length; slot++) {
+            if (oldValues[slot] != NO_VALUE) {
+                put(oldKeys[slot], oldValues[slot]);
+            }
+        }
+    }
+
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
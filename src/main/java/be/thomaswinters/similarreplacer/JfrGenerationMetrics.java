@@ -0,0 +1,59 @@
+package be.thomaswinters.similarreplacer;
+
+import jdk.jfr.*;
+
+/**
+ * Emits every generation stage and counter increment as a Java Flight Recorder event, such that they can be analysed
+ * in a recording or consumed from a JFR event stream. Events are only created while a recording has them enabled.
+ */
+public class JfrGenerationMetrics implements IGenerationMetrics {
+
+    @Override
+    public void recordStage(GenerationStage stage, long durationNanos) {
+        StageEvent event = new StageEvent();
+        if (event.isEnabled()) {
+            event.stage = stage.getMetricName();
+            event.duration = durationNanos;
+            event.commit();
+        }
+    }
+
+    @Override
+    public void increment(GenerationCounter counter, long amount) {
+        CounterEvent event = new CounterEvent();
+        if (event.isEnabled()) {
+            event.counter = counter.getMetricName();
+            event.amount = amount;
+            event.commit();
+        }
+    }
+
+    /*-********************************************-*
+     *  EVENTS
+     *-********************************************-*/
+
+    @Name("be.thomaswinters.similarreplacer.GenerationStage")
+    @Label("Generation Stage")
+    @Category("Dynamic Template")
+    @StackTrace(false)
+    static class StageEvent extends Event {
+        @Label("Stage")
+        String stage;
+
+        @Label("Duration")
+        @Timespan(Timespan.NANOSECONDS)
+        long duration;
+    }
+
+    @Name("be.thomaswinters.similarreplacer.GenerationCounter")
+    @Label("Generation Counter")
+    @Category("Dynamic Template")
+    @StackTrace(false)
+    static class CounterEvent extends Event {
+        @Label("Counter")
+        String counter;
+
+        @Label("Amount")
+        long amount;
+    }
+}
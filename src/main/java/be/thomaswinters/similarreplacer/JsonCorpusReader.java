@@ -0,0 +1,221 @@
+package be.thomaswinters.similarreplacer;
+
+import com.google.common.base.Charsets;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.LongConsumer;
+
+/**
+ * Reads the lines of a corpus one by one, such that the corpus never has to be in memory completely. Accepts both a
+ * JSON array of strings, e.g. <code>["this is a text", "this is another"]</code>, and JSON Lines, having one JSON
+ * string per line.
+ */
+public class JsonCorpusReader implements Iterator<String>, Closeable {
+    private final BufferedReader reader;
+    private final JsonReader jsonReader;
+
+    public JsonCorpusReader(Reader reader) throws IOException {
+        this.reader = reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader(reader);
+        if (peekFirstCharacter(this.reader) == '[') {
+            this.jsonReader = new JsonReader(this.reader);
+            this.jsonReader.beginArray();
+        } else {
+            this.jsonReader = null;
+        }
+    }
+
+    /**
+     * Reads the full corpus into memory
+     */
+    public static List<String> readAll(Reader reader) throws IOException {
+        List<String> lines = new ArrayList<>();
+        try (JsonCorpusReader corpusReader = new JsonCorpusReader(reader)) {
+            corpusReader.forEachRemaining(lines::add);
+        }
+        return lines;
+    }
+
+    /*-********************************************-*
+     *  OFFSETS
+     *-********************************************-*/
+
+    /**
+     * Counts the lines of the given corpus file by scanning its bytes, without decoding the lines
+     */
+    static int countLines(Path file) throws IOException {
+        return scanLineOffsets(file, offset -> {
+        });
+    }
+
+    /**
+     * Finds the byte offsets at which the given lines of the given corpus file start, such that they can be read using
+     * {@link #open(Path, long)} without parsing the lines before them
+     *
+     * @param lines ascending indices of lines of the corpus
+     * @return the byte offset of every given line
+     */
+    static long[] findLineOffsets(Path file, int[] lines) throws IOException {
+        long[] offsets = new long[lines.length];
+        int[] numberOfLines = new int[1];
+        int[] found = new int[1];
+        scanLineOffsets(file, offset -> {
+            while (found[0] < lines.length && lines[found[0]] == numberOfLines[0]) {
+                offsets[found[0]++] = offset;
+            }
+            numberOfLines[0]++;
+        });
+        if (found[0] < lines.length) {
+            throw new IndexOutOfBoundsException("Line " + lines[found[0]] + " of a corpus of " + numberOfLines[0]
+                    + " lines");
+        }
+        return offsets;
+    }
+
+    /**
+     * Opens the given corpus file at the given byte offset of one of its lines, as found by
+     * {@link #findLineOffsets(Path, int[])}
+     */
+    static JsonCorpusReader open(Path file, long offset) throws IOException {
+        boolean array;
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(file))) {
+            array = peekFirstCharacter(in) == '[';
+        }
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        InputStream in = Channels.newInputStream(channel.position(offset));
+        if (array) {
+            // Continue the array from the given line on
+            in = new SequenceInputStream(new ByteArrayInputStream(new byte[]{'['}), in);
+        }
+        return new JsonCorpusReader(new InputStreamReader(in, Charsets.UTF_8));
+    }
+
+    /**
+     * Passes the byte offset of the start of every line of the corpus to the consumer, i.e. of every string of a
+     * JSON array, or of every line that is not blank in JSON Lines. Works on the bytes, as the quotes, backslashes
+     * and line breaks that delimit the lines never occur inside a multi-byte UTF-8 character.
+     *
+     * @return the number of lines
+     */
+    private static int scanLineOffsets(Path file, LongConsumer consumer) throws IOException {
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(file))) {
+            boolean array = peekFirstCharacter(in) == '[';
+            int numberOfLines = 0;
+            boolean inString = false;
+            boolean escaped = false;
+            boolean lineStarted = false;
+            long offset = 0;
+            for (int b = in.read(); b >= 0; b = in.read(), offset++) {
+                if (array) {
+                    if (inString) {
+                        if (escaped) {
+                            escaped = false;
+                        } else if (b == '\\') {
+                            escaped = true;
+                        } else if (b == '"') {
+                            inString = false;
+                        }
+                    } else if (b == '"') {
+                        consumer.accept(offset);
+                        numberOfLines++;
+                        inString = true;
+                    } else if (b == ']') {
+                        break;
+                    }
+                } else if (b == '\n') {
+                    lineStarted = false;
+                } else if (!lineStarted && !Character.isWhitespace(b)) {
+                    consumer.accept(offset);
+                    numberOfLines++;
+                    lineStarted = true;
+                }
+            }
+            return numberOfLines;
+        }
+    }
+
+    /**
+     * @return the first character of the stream that is not whitespace, or -1 if there is none, without consuming it
+     */
+    private static int peekFirstCharacter(InputStream in) throws IOException {
+        in.mark(Integer.MAX_VALUE);
+        int character = in.read();
+        while (character >= 0 && Character.isWhitespace(character)) {
+            character = in.read();
+        }
+        in.reset();
+        return character;
+    }
+
+    private static int peekFirstCharacter(BufferedReader reader) throws IOException {
+        while (true) {
+            reader.mark(1);
+            int character = reader.read();
+            if (character < 0 || !Character.isWhitespace(character)) {
+                reader.reset();
+                return character;
+            }
+        }
+    }
+
+    /*-********************************************-*
+     *  ITERATOR
+     *-********************************************-*/
+
+    private String next;
+
+    @Override
+    public boolean hasNext() {
+        if (next == null) {
+            try {
+                next = readNext();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return next != null;
+    }
+
+    @Override
+    public String next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        String result = next;
+        next = null;
+        return result;
+    }
+
+    private String readNext() throws IOException {
+        if (jsonReader != null) {
+            if (jsonReader.peek() == JsonToken.END_ARRAY) {
+                return null;
+            }
+            return jsonReader.nextString();
+        }
+
+        String line = reader.readLine();
+        while (line != null && line.trim().isEmpty()) {
+            line = reader.readLine();
+        }
+        if (line == null) {
+            return null;
+        }
+        return new JsonReader(new StringReader(line)).nextString();
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
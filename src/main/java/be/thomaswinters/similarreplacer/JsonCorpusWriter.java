@@ -0,0 +1,53 @@
+package be.thomaswinters.similarreplacer;
+
+import com.google.gson.stream.JsonWriter;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes generated lines as soon as they are generated, such that they do not have to be kept in memory and already
+ * written lines survive a crash. In the JSON Lines format every line is a complete JSON value, while a JSON array is
+ * only closed when the writer is closed.
+ */
+public class JsonCorpusWriter implements Closeable {
+
+    public enum Format {
+        JSON, JSON_LINES
+    }
+
+    private final Writer writer;
+    private final JsonWriter jsonWriter;
+    private final Format format;
+
+    public JsonCorpusWriter(Writer writer, Format format) throws IOException {
+        this.writer = writer;
+        this.jsonWriter = new JsonWriter(writer);
+        this.format = format;
+        if (format == Format.JSON) {
+            jsonWriter.setIndent("  ");
+            jsonWriter.beginArray();
+        } else {
+            // Allows writing multiple top level values
+            jsonWriter.setLenient(true);
+        }
+    }
+
+    public void write(String line) throws IOException {
+        jsonWriter.value(line);
+        jsonWriter.flush();
+        if (format == Format.JSON_LINES) {
+            writer.write('\n');
+            writer.flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (format == Format.JSON) {
+            jsonWriter.endArray();
+        }
+        jsonWriter.close();
+    }
+}
@@ -0,0 +1,86 @@
+package be.thomaswinters.similarreplacer;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of non-negative values (e.g. durations in nanoseconds) with logarithmic buckets: every power
+ * of two is split in eight buckets, such that percentiles are estimated within 12.5% of the real value.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int NUMBER_OF_BUCKETS = (Long.SIZE - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(NUMBER_OF_BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder total = new LongAdder();
+
+    public void record(long value) {
+        long clamped = Math.max(0, value);
+        buckets.incrementAndGet(getBucket(clamped));
+        count.increment();
+        total.add(clamped);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getTotal() {
+        return total.sum();
+    }
+
+    public double getMean() {
+        long count = getCount();
+        return count == 0 ? 0 : getTotal() / (double) count;
+    }
+
+    /**
+     * @param percentile percentile between 0 and 1, e.g. 0.99 for the p99
+     * @return an upper bound of the value at the given percentile, or 0 if nothing was recorded
+     */
+    public long getPercentile(double percentile) {
+        long count = getCount();
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile * count));
+        long seen = 0;
+        for (int bucket = 0; bucket < NUMBER_OF_BUCKETS; bucket++) {
+            seen += buckets.get(bucket);
+            if (seen >= rank) {
+                return getUpperBound(bucket);
+            }
+        }
+        return getUpperBound(NUMBER_OF_BUCKETS - 1);
+    }
+
+    /*-********************************************-*
+     *  BUCKETS
+     *-********************************************-*/
+
+    private static int getBucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    private static long getUpperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long lowerBound = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (exponent - SUB_BUCKET_BITS);
+        return lowerBound + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+
+    @Override
+    public String toString() {
+        return "count=" + getCount() + ", mean=" + Math.round(getMean()) + ", p50=" + getPercentile(0.5)
+                + ", p99=" + getPercentile(0.99) + ", max=" + getPercentile(1);
+    }
+}
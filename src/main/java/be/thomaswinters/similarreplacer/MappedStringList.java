@@ -0,0 +1,45 @@
+package be.thomaswinters.similarreplacer;
+
+import com.google.common.base.Charsets;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+/**
+ * Read-only list of strings stored as UTF-8 in a (memory-mapped) buffer. Strings are only decoded when they are
+ * first accessed, such that opening a large vocabulary does not require decoding all of it.
+ */
+class MappedStringList extends AbstractList<String> implements RandomAccess {
+    private final ByteBuffer bytes;
+    private final IntBuffer offsets;
+    private final String[] decoded;
+
+    /**
+     * @param bytes   the UTF-8 bytes of all strings after each other
+     * @param offsets start of every string in the bytes, followed by the end of the last string
+     */
+    MappedStringList(ByteBuffer bytes, IntBuffer offsets) {
+        this.bytes = bytes;
+        this.offsets = offsets;
+        this.decoded = new String[offsets.limit() - 1];
+    }
+
+    @Override
+    public String get(int index) {
+        String result = decoded[index];
+        if (result == null) {
+            ByteBuffer word = bytes.duplicate();
+            word.position(offsets.get(index)).limit(offsets.get(index + 1));
+            result = Charsets.UTF_8.decode(word).toString();
+            decoded[index] = result;
+        }
+        return result;
+    }
+
+    @Override
+    public int size() {
+        return decoded.length;
+    }
+}
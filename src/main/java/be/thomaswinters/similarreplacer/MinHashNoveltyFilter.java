@@ -0,0 +1,122 @@
+package be.thomaswinters.similarreplacer;
+
+import java.util.*;
+
+/**
+ * Rejects texts that are nearly equal to a line of the corpus. Texts are compared using the Jaccard similarity of
+ * their character shingles, estimated with MinHash signatures. Lines that might be similar are found using
+ * locality-sensitive hashing on bands of the signature, such that not every line has to be compared.
+ */
+public class MinHashNoveltyFilter implements INoveltyFilter {
+    private static final int DEFAULT_SHINGLE_LENGTH = 4;
+    private static final int DEFAULT_NUMBER_OF_BANDS = 16;
+    private static final int DEFAULT_ROWS_PER_BAND = 4;
+
+    private final int shingleLength;
+    private final int numberOfBands;
+    private final int rowsPerBand;
+    private final double maxSimilarity;
+    private final long[] hashSeeds;
+
+    private final List<int[]> signatures = new ArrayList<>();
+    private final Map<Long, IntArrayList> bandBuckets = new HashMap<>();
+
+    /*-********************************************-*
+     *  Construction
+     *-********************************************-*/
+    public MinHashNoveltyFilter(Iterable<String> corpus, double maxSimilarity,
+                                int shingleLength, int numberOfBands, int rowsPerBand) {
+        this.shingleLength = shingleLength;
+        this.numberOfBands = numberOfBands;
+        this.rowsPerBand = rowsPerBand;
+        this.maxSimilarity = maxSimilarity;
+        this.hashSeeds = new long[numberOfBands * rowsPerBand];
+        for (int i = 0; i < hashSeeds.length; i++) {
+            hashSeeds[i] = SplitMix64.mix(SplitMix64.GOLDEN_GAMMA * (i + 1));
+        }
+
+        for (String line : corpus) {
+            int[] signature = calculateSignature(line);
+            int id = signatures.size();
+            signatures.add(signature);
+            for (int band = 0; band < numberOfBands; band++) {
+                bandBuckets.computeIfAbsent(calculateBandKey(signature, band), e -> new IntArrayList(1)).add(id);
+            }
+        }
+    }
+
+    /**
+     * @param maxSimilarity texts having an estimated Jaccard similarity of at least this with a corpus line are
+     *                      rejected
+     */
+    public MinHashNoveltyFilter(Iterable<String> corpus, double maxSimilarity) {
+        this(corpus, maxSimilarity, DEFAULT_SHINGLE_LENGTH, DEFAULT_NUMBER_OF_BANDS, DEFAULT_ROWS_PER_BAND);
+    }
+
+    /*-********************************************-*
+     *  FILTERING
+     *-********************************************-*/
+
+    @Override
+    public boolean isNovel(String text) {
+        int[] signature = calculateSignature(text);
+        for (int band = 0; band < numberOfBands; band++) {
+            IntArrayList candidates = bandBuckets.get(calculateBandKey(signature, band));
+            if (candidates != null) {
+                for (int i = 0; i < candidates.size(); i++) {
+                    if (estimateSimilarity(signature, signatures.get(candidates.get(i))) >= maxSimilarity) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    private static double estimateSimilarity(int[] signature1, int[] signature2) {
+        int equal = 0;
+        for (int i = 0; i < signature1.length; i++) {
+            if (signature1[i] == signature2[i]) {
+                equal++;
+            }
+        }
+        return equal / (double) signature1.length;
+    }
+
+    /*-********************************************-*
+     *  SIGNATURES
+     *-********************************************-*/
+
+    private int[] calculateSignature(String text) {
+        String normalised = text.trim().toLowerCase();
+        long[] minimums = new long[hashSeeds.length];
+        Arrays.fill(minimums, Long.MAX_VALUE);
+
+        int numberOfShingles = Math.max(1, normalised.length() - shingleLength + 1);
+        for (int start = 0; start < numberOfShingles; start++) {
+            long shingleHash = 0;
+            for (int i = start; i < Math.min(normalised.length(), start + shingleLength); i++) {
+                shingleHash = 31 * shingleHash + normalised.charAt(i);
+            }
+            shingleHash = SplitMix64.mix(shingleHash);
+            for (int i = 0; i < hashSeeds.length; i++) {
+                minimums[i] = Math.min(minimums[i], SplitMix64.mix(shingleHash ^ hashSeeds[i]));
+            }
+        }
+
+        // Only the lowest bits are stored, which is plenty to distinguish hashes while halving the memory
+        int[] signature = new int[minimums.length];
+        for (int i = 0; i < minimums.length; i++) {
+            signature[i] = (int) minimums[i];
+        }
+        return signature;
+    }
+
+    private long calculateBandKey(int[] signature, int band) {
+        long key = band;
+        for (int row = band * rowsPerBand; row < (band + 1) * rowsPerBand; row++) {
+            key = SplitMix64.mix(key * SplitMix64.GOLDEN_GAMMA + signature[row]);
+        }
+        return key;
+    }
+}
@@ -0,0 +1,153 @@
+package be.thomaswinters.similarreplacer;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Generates lines from templates until the novelty filter accepts one. The template is only analysed once for all
+ * its trials: every retry only picks new context lines and thus new replacement candidates. Templates that can never
+ * result in a novel line, because none of their tokens has another word with the same tags in the whole context
+ * corpus and the template itself is not novel, are detected before trying.
+ */
+public class NovelLineGenerator {
+    /**
+     * Number of random templates in a row without a novel line after which an unbounded stream stops searching
+     */
+    static final int MAX_CONSECUTIVE_FAILED_TEMPLATES = 1000;
+
+    private final DynamicTemplateGenerator generator;
+    private final INoveltyFilter noveltyFilter;
+    private final int maxTrials;
+    private final int numberOfContextLines;
+
+    public NovelLineGenerator(DynamicTemplateGenerator generator, INoveltyFilter noveltyFilter, int maxTrials,
+                              int numberOfContextLines) {
+        if (maxTrials < 1) {
+            throw new IllegalArgumentException("Max number of trials should be at least 1, but was " + maxTrials);
+        }
+        this.generator = generator;
+        this.noveltyFilter = noveltyFilter;
+        this.maxTrials = maxTrials;
+        this.numberOfContextLines = numberOfContextLines;
+    }
+
+    /*-********************************************-*
+     *  GENERATING
+     *-********************************************-*/
+
+    public Result generate(String dynamicTemplate, Random random) {
+        IGenerationMetrics metrics = generator.getMetrics();
+        AnalysedTemplate analysedTemplate = generator.analyseTemplate(dynamicTemplate);
+        if (!generator.isProducible(analysedTemplate) && !noveltyFilter.isNovel(dynamicTemplate)) {
+            metrics.increment(GenerationCounter.UNPRODUCIBLE_LINES);
+            return new Result(Status.UNPRODUCIBLE, dynamicTemplate, null, 0);
+        }
+
+        for (int trial = 1; trial <= maxTrials; trial++) {
+            Optional<String> generated = generator.generate(analysedTemplate, numberOfContextLines, false, random);
+            if (generated.isPresent()) {
+                if (noveltyFilter.isNovel(generated.get())) {
+                    metrics.recordTrialsForLine(trial);
+                    return new Result(Status.GENERATED, dynamicTemplate, generated.get(), trial);
+                }
+                metrics.increment(GenerationCounter.REJECTED_DUPLICATES);
+            }
+        }
+        metrics.increment(GenerationCounter.TRIALS, maxTrials);
+        metrics.increment(GenerationCounter.EXHAUSTED_LINES);
+        return new Result(Status.EXHAUSTED, dynamicTemplate, null, maxTrials);
+    }
+
+    /**
+     * Generates up to the given number of distinct novel variants of the template, analysing the template only once
+     *
+     * @see DynamicTemplateGenerator#generateVariants(String, int, int, boolean, Random)
+     */
+    public List<String> generateVariants(String dynamicTemplate, int numberOfVariants, Random random) {
+        return generator.generateVariants(dynamicTemplate, numberOfVariants, numberOfContextLines, false, random,
+                noveltyFilter::isNovel);
+    }
+
+    /**
+     * Lazily generates a novel line for every template, in order, skipping the templates for which no novel line is
+     * found. The n-th template uses the same random generator as the n-th input of a {@link ParallelBatchGenerator}
+     * with the same seed, so the lines do not depend on whether and how the stream is consumed in parallel.
+     *
+     * @param templates templates to generate from, preferably supporting fast random access for splitting
+     */
+    public Stream<String> stream(List<String> templates, long seed) {
+        return GenerationSpliterator.stream(templates.size(), index ->
+                generate(templates.get((int) index), ParallelBatchGenerator.createRandom(seed, index)).getLine());
+    }
+
+    /**
+     * Lazily generates novel lines from random templates of the generator, only as many as the consumer of the stream
+     * asks for. The stream ends when {@value #MAX_CONSECUTIVE_FAILED_TEMPLATES} templates in a row did not result in a
+     * novel line, since then (almost) no template of the corpus can.
+     */
+    public Stream<String> stream(long seed) {
+        return GenerationSpliterator.stream(Long.MAX_VALUE, MAX_CONSECUTIVE_FAILED_TEMPLATES, index -> {
+            Random random = ParallelBatchGenerator.createRandom(seed, index);
+            return generate(RandomIndices.pick(generator.getTemplateBases(), random), random).getLine();
+        });
+    }
+
+    /*-********************************************-*
+     *  RESULT
+     *-********************************************-*/
+
+    public enum Status {
+        /**
+         * A novel line was generated
+         */
+        GENERATED,
+        /**
+         * The template can not result in a novel line, so it was not tried
+         */
+        UNPRODUCIBLE,
+        /**
+         * No novel line was generated within the maximum number of trials
+         */
+        EXHAUSTED
+    }
+
+    public static class Result {
+        private final Status status;
+        private final String template;
+        private final String line;
+        private final int trials;
+
+        private Result(Status status, String template, String line, int trials) {
+            this.status = status;
+            this.template = template;
+            this.line = line;
+            this.trials = trials;
+        }
+
+        public Status getStatus() {
+            return status;
+        }
+
+        public String getTemplate() {
+            return template;
+        }
+
+        /**
+         * @return the generated line, if any
+         */
+        public Optional<String> getLine() {
+            return Optional.ofNullable(line);
+        }
+
+        public int getTrials() {
+            return trials;
+        }
+
+        @Override
+        public String toString() {
+            return status + " after " + trials + " trials: " + (line != null ? line : template);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package be.thomaswinters.similarreplacer;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BiFunction;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Generates a batch of lines on multiple threads while keeping the result reproducible: every line gets its own random
+ * generator, seeded using the seed of the batch and the index of the line, and the results are returned in the order
+ * of the input. The threads are kept until the generator is closed, such that consecutive batches can reuse their
+ * LanguageTool instances.
+ */
+public class ParallelBatchGenerator implements AutoCloseable {
+    private final int parallelism;
+    private final long seed;
+    private final ForkJoinPool pool;
+
+    public ParallelBatchGenerator(int parallelism, long seed) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism should be at least 1, but was " + parallelism);
+        }
+        this.parallelism = parallelism;
+        this.seed = seed;
+        this.pool = new ForkJoinPool(parallelism);
+    }
+
+    /**
+     * @param inputs        inputs to generate a line for
+     * @param firstIndex    index of the first input, used for seeding such that a batch can be split in parts
+     * @param lineGenerator generates the line for an input using the given random generator
+     * @return the generated lines, in the same order as the inputs
+     */
+    public <T, R> List<R> generate(List<T> inputs, long firstIndex, BiFunction<T, Random, R> lineGenerator) {
+        try {
+            return pool.submit(() -> IntStream.range(0, inputs.size())
+                    .parallel()
+                    .mapToObj(i -> lineGenerator.apply(inputs.get(i), createRandom(firstIndex + i)))
+                    .collect(Collectors.toList()))
+                    .get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    public <T, R> List<R> generate(List<T> inputs, BiFunction<T, Random, R> lineGenerator) {
+        return generate(inputs, 0, lineGenerator);
+    }
+
+    /**
+     * @return a random generator that only depends on the seed of this batch and the given index
+     */
+    public Random createRandom(long index) {
+        return createRandom(seed, index);
+    }
+
+    /**
+     * @return the random generator a batch generator with the given seed uses for the input at the given index
+     */
+    public static Random createRandom(long seed, long index) {
+        return new Random(SplitMix64.mix(seed + SplitMix64.GOLDEN_GAMMA * (index + 1)));
+    }
+
+    @Override
+    public void close() {
+        pool.shutdown();
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+}
@@ -0,0 +1,142 @@
+package be.thomaswinters.similarreplacer;
+
+import be.thomaswinters.wordcounter.WordCounter;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+
+/**
+ * Tags the context lines and collects the vocabulary of a corpus on multiple threads. The corpus is split into chunks
+ * of lines by a fork-join task, every chunk is tagged into its own partial index and tokenized into its own partial
+ * vocabulary, and the partial results are merged in order afterwards. Meanwhile, the words are counted by a
+ * {@link WordCounter} on one of the threads. The templates and context lines are read in place, without first copying
+ * them into one list.
+ * <p>
+ * The result is the same as the one calculated on a single thread by
+ * {@link DynamicTemplateGenerator#calculateWordFrequencies(List, List, ContextIndex, ReplacementRules)}.
+ */
+public class ParallelCorpusTagger {
+    private static final int DEFAULT_CHUNK_SIZE = 256;
+
+    private final int parallelism;
+    private final int chunkSize;
+    private final ReplacementRules rules;
+
+    /**
+     * Creates a tagger using all available processors
+     */
+    public ParallelCorpusTagger(ReplacementRules rules) {
+        this(Runtime.getRuntime().availableProcessors(), DEFAULT_CHUNK_SIZE, rules);
+    }
+
+    public ParallelCorpusTagger(int parallelism) {
+        this(parallelism, DEFAULT_CHUNK_SIZE);
+    }
+
+    public ParallelCorpusTagger(int parallelism, int chunkSize) {
+        this(parallelism, chunkSize, ReplacementRules.DUTCH);
+    }
+
+    /**
+     * @param parallelism number of threads to tag with
+     * @param chunkSize   number of lines every thread tags before its partial result is stored
+     * @param rules       rules deciding which words of the context lines are replaceable
+     */
+    public ParallelCorpusTagger(int parallelism, int chunkSize, ReplacementRules rules) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism should be at least 1, but was " + parallelism);
+        }
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("Chunk size should be at least 1, but was " + chunkSize);
+        }
+        this.parallelism = parallelism;
+        this.chunkSize = chunkSize;
+        this.rules = rules;
+    }
+
+    /*-********************************************-*
+     *  TAGGING
+     *-********************************************-*/
+
+    /**
+     * @return the context index of the context corpus, and the frequencies of the words of both the templates and the
+     * context corpus
+     */
+    public TaggedCorpus tag(List<String> dynamicTemplateBases, List<String> contextCorpus) {
+        int numberOfTemplateChunks = getNumberOfChunks(dynamicTemplateBases.size());
+        int numberOfChunks = numberOfTemplateChunks + getNumberOfChunks(contextCorpus.size());
+        ContextIndex[] partialIndices = new ContextIndex[numberOfChunks];
+        List<Set<String>> partialVocabularies = new ArrayList<>(Collections.nCopies(numberOfChunks, null));
+
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        WordCounter wc;
+        try {
+            ForkJoinTask<WordCounter> counting = pool.submit(() ->
+                    DynamicTemplateGenerator.calculateWordCounter(dynamicTemplateBases, contextCorpus));
+            pool.invoke(new ChunkTask(0, numberOfChunks, chunk -> {
+                SimilarWordReplacer tagger = new SimilarWordReplacer(rules);
+                Set<String> vocabulary = new LinkedHashSet<>();
+                if (chunk < numberOfTemplateChunks) {
+                    DynamicTemplateGenerator.addVocabulary(tagger, getChunk(dynamicTemplateBases, chunk), vocabulary);
+                } else {
+                    List<String> lines = getChunk(contextCorpus, chunk - numberOfTemplateChunks);
+                    DynamicTemplateGenerator.addVocabulary(tagger, lines, vocabulary);
+                    partialIndices[chunk] = ContextIndex.build(lines, tagger);
+                }
+                partialVocabularies.set(chunk, vocabulary);
+            }));
+            wc = counting.join();
+        } finally {
+            pool.shutdown();
+        }
+
+        // Merge the partial results in the order of the corpus
+        ContextIndex contextIndex = ContextIndex.concat(Arrays.asList(partialIndices)
+                .subList(numberOfTemplateChunks, numberOfChunks));
+        Set<String> vocabulary = new LinkedHashSet<>(contextIndex.getWords());
+        for (Set<String> partial : partialVocabularies) {
+            vocabulary.addAll(partial);
+        }
+        return new TaggedCorpus(contextIndex, WordFrequencyTable.fromWordCounter(wc, vocabulary));
+    }
+
+    private int getNumberOfChunks(int numberOfLines) {
+        return (numberOfLines + chunkSize - 1) / chunkSize;
+    }
+
+    private List<String> getChunk(List<String> lines, int chunk) {
+        return lines.subList(chunk * chunkSize, Math.min(lines.size(), (chunk + 1) * chunkSize));
+    }
+
+    /**
+     * Processes a range of chunks, splitting it in halves until only one chunk is left
+     */
+    private static class ChunkTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+        private final transient IntConsumer processor;
+
+        private ChunkTask(int from, int to, IntConsumer processor) {
+            this.from = from;
+            this.to = to;
+            this.processor = processor;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= 1) {
+                if (from < to) {
+                    processor.accept(from);
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new ChunkTask(from, middle, processor), new ChunkTask(middle, to, processor));
+        }
+    }
+}
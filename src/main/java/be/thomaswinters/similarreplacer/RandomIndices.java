@@ -0,0 +1,47 @@
+package be.thomaswinters.similarreplacer;
+
+import java.util.*;
+
+/**
+ * Picks random indices using a given source of randomness, instead of a shared static random generator
+ */
+final class RandomIndices {
+
+    private RandomIndices() {
+    }
+
+    static <E> E pick(List<E> list, Random random) {
+        return list.get(random.nextInt(list.size()));
+    }
+
+    /**
+     * @return the given amount of consecutive indices (or less if size is smaller) starting at a random index
+     */
+    static List<Integer> pickConsecutive(int amount, int size, Random random) {
+        int start = random.nextInt(Math.max(1, size - amount + 1));
+        List<Integer> result = new ArrayList<>(amount);
+        for (int i = start; i < Math.min(size, start + amount); i++) {
+            result.add(i);
+        }
+        return result;
+    }
+
+    /**
+     * @return the given amount of distinct random indices (or all indices if size is smaller)
+     */
+    static List<Integer> pickUnique(int amount, int size, Random random) {
+        if (amount * 2 > size) {
+            List<Integer> result = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                result.add(i);
+            }
+            Collections.shuffle(result, random);
+            return new ArrayList<>(result.subList(0, Math.min(amount, size)));
+        }
+        Set<Integer> result = new LinkedHashSet<>();
+        while (result.size() < amount) {
+            result.add(random.nextInt(size));
+        }
+        return new ArrayList<>(result);
+    }
+}
@@ -3,14 +3,57 @@ package be.thomaswinters.similarreplacer;
 import be.thomaswinters.markov.model.data.bags.Bag;
 
 import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
 
+/**
+ * Picks a random replacement, weighted by how often it occurs in the context. The temperature controls how much the
+ * weights matter: 1 picks proportionally to the counts, higher temperatures pick the distinct words more uniformly and
+ * lower temperatures favour the most frequent ones.
+ */
 public class RandomReplacementPicker implements IReplacementPicker {
-    protected static final Random RANDOM = new Random();
+    private final double temperature;
+
+    public RandomReplacementPicker() {
+        this(1d);
+    }
+
+    public RandomReplacementPicker(double temperature) {
+        if (!(temperature > 0)) {
+            throw new IllegalArgumentException("Temperature should be positive, but was " + temperature);
+        }
+        this.temperature = temperature;
+    }
 
     /**
      * Picks a random replacement from the bag
      */
     public String pickReplacement(String replacement, Bag<String> bag) {
-        return bag.get(RANDOM.nextInt(bag.getAmountOfElements()));
+        return pickReplacement(replacement, bag, ThreadLocalRandom.current());
+    }
+
+    /**
+     * Picks a random element of the bag. Other temperatures than 1 build an {@link AliasTable} of the bag for every
+     * pick, so picking many replacements from the same candidates is faster through the {@link ReplacementCandidates},
+     * which build their table only once.
+     */
+    @Override
+    public String pickReplacement(String replacement, Bag<String> bag, Random random) {
+        if (temperature == 1d) {
+            return bag.get(random.nextInt(bag.getAmountOfElements()));
+        }
+        return AliasTable.fromBag(bag, temperature).sample(random);
+    }
+
+    /**
+     * Samples from the alias table of the candidates, which is only built once for all words replaced using these
+     * candidates, instead of wrapping the bag to exclude the word
+     */
+    @Override
+    public String pickReplacement(String replacement, ReplacementCandidates candidates, Random random) {
+        return candidates.getAliasTable(temperature).sample(random, replacement);
+    }
+
+    public double getTemperature() {
+        return temperature;
     }
 }
@@ -0,0 +1,86 @@
+package be.thomaswinters.similarreplacer;
+
+import be.thomaswinters.markov.model.data.bags.Bag;
+import be.thomaswinters.markov.model.data.bags.impl.ExclusionBag;
+
+import java.util.Collections;
+
+/**
+ * All context words that can replace a word having a particular set of POS-tags. Structures that pickers need to
+ * pick efficiently are only calculated when first needed, and are then reused for every word that is replaced using
+ * these candidates.
+ */
+public class ReplacementCandidates {
+    private final Bag<String> bag;
+
+    /**
+     * Frequencies the closest word was looked up with once by scanning the words, after which they are sorted
+     */
+    private IWordFrequencies scannedFrequencies;
+    private IWordFrequencies sortedFrequencies;
+    private FrequencySortedWords sortedWords;
+    private double aliasTableTemperature;
+    private AliasTable aliasTable;
+
+    public ReplacementCandidates(Bag<String> bag) {
+        this.bag = bag;
+    }
+
+    public Bag<String> getBag() {
+        return bag;
+    }
+
+    /**
+     * @return the candidates without the given word, such that a word does not get replaced with itself
+     */
+    public Bag<String> without(String word) {
+        if (bag instanceof CompactBag) {
+            // Skips the word using the running totals of the bag, without wrapping it
+            return ((CompactBag) bag).without(word);
+        }
+        return new ExclusionBag<String>(bag, Collections.singletonList(word));
+    }
+
+    /**
+     * @return the distinct candidate other than the excluded word having the frequency closest to the given count (the
+     * first one of the bag if several are equally close), or null if there is none. The first lookup scans the
+     * candidates, as most candidates are only used for one word, and only the next lookups sort them.
+     */
+    public String getClosest(IWordFrequencies wc, int count, String excluded) {
+        if (sortedFrequencies != wc && scannedFrequencies != wc) {
+            scannedFrequencies = wc;
+            return FrequencySortedWords.findClosest(getDistinctWords(), wc, count, excluded);
+        }
+        return getSortedWords(wc).getClosest(count, excluded);
+    }
+
+    private Iterable<String> getDistinctWords() {
+        if (bag instanceof CompactBag) {
+            return ((CompactBag) bag).getDistinctWords();
+        }
+        return bag.toMultiset().elementSet();
+    }
+
+    /**
+     * @return the distinct candidates sorted using the given word frequencies
+     */
+    public FrequencySortedWords getSortedWords(IWordFrequencies wc) {
+        if (sortedWords == null || sortedFrequencies != wc) {
+            sortedWords = new FrequencySortedWords(bag, wc);
+            sortedFrequencies = wc;
+        }
+        return sortedWords;
+    }
+
+    /**
+     * @return a table sampling the distinct candidates in constant time, weighted by their count raised to the power
+     * 1/temperature
+     */
+    public AliasTable getAliasTable(double temperature) {
+        if (aliasTable == null || aliasTableTemperature != temperature) {
+            aliasTable = AliasTable.fromBag(bag, temperature);
+            aliasTableTemperature = temperature;
+        }
+        return aliasTable;
+    }
+}
@@ -0,0 +1,92 @@
+package be.thomaswinters.similarreplacer;
+
+import org.languagetool.Language;
+import org.languagetool.language.Dutch;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Language-specific rules deciding which words are allowed to be replaced: the language to tag with, words that
+ * should never be replaced, POS-tags of which tokens should never be replaced, and the prefix of the POS-tags of names.
+ * The tag blacklist is compiled to a bitmask over the {@link TagSets} tag ids, and the word blacklist is queried
+ * ignoring case without allocating.
+ */
+public class ReplacementRules {
+
+    public static final ReplacementRules DUTCH = new ReplacementRules(new Dutch(),
+            Arrays.asList(
+                    // Lidwoorden
+                    "de", "het", "een",
+                    // Algemene onderwerpen
+                    "ik", "jij", "je", "u", "wij", "we", "jullie", "hij", "zij", "ze",
+                    // Algemene persoonlijke voornaamwoorden
+                    "hen", "hem", "haar", "mijn", "uw", "jouw", "onze", "ons",
+                    // Algemene werkwoorden
+                    "ben", "bent", "is", "was", "waren", "geweest", "heb", "hebt", "heeft", "hebben", "gehad", "word",
+                    "wordt", "worden", "geworden", "werd", "werden", "laat", "laten", "liet", "lieten", "gelaten", "ga",
+                    "gaat", "gaan", "gegaan", "ging", "gingen", "moet", "moeten", "moest", "moesten", "gemoeten",
+                    "mag", "mogen", "mocht", "mochten", "gemogen", "zal", "zullen", "zult", "zou", "zouden", "kan",
+                    "kunnen", "gekunt", "gekunnen", "hoef", "hoeft", "hoeven", "hoefde", "hoefden", "gehoeven",
+                    // Veelgebruikte woorden
+                    "niet", "iets", "dan", "voort", "erna", "welke", "maar", "van", "voor", "met", "binnenkort", "in",
+                    "en", "teveel", "om", "alles", "elke", "al", "echt", "waar", "waarom", "hoe", "o.a.", "beetje",
+                    "enkel", "goed", "best", "werkende", "meer", "voor", "zit", "echt", "uit", "even", "wel"),
+            Arrays.asList("AVwaar", "AVwr", "DTh", "DTd", "DTe", "DTp", "PRte", "PRnaar", "PRvan", "PN2", "PRVoor",
+                    "PRmet", "PRop", "PRin", "PRom", "PRaan", "AVdr", "CJo"),
+            "PN");
+
+    private final Language language;
+    private final CaseInsensitiveWordSet tokenBlacklist;
+    private final long[] tagBlacklistMask;
+    private final String nameTagPrefix;
+    /**
+     * Everything that influences which words are replaceable, e.g. to recognise corpora tagged using equal rules
+     */
+    private final String description;
+
+    /*-********************************************-*
+     *  Construction
+     *-********************************************-*/
+    public ReplacementRules(Language language, Collection<String> tokenBlacklist, Collection<String> tagBlacklist,
+                            String nameTagPrefix) {
+        this.language = language;
+        this.tokenBlacklist = new CaseInsensitiveWordSet(tokenBlacklist);
+        this.tagBlacklistMask = TagSets.createMask(tagBlacklist);
+        this.nameTagPrefix = nameTagPrefix;
+        this.description = language.getShortNameWithCountryAndVariant() + " " + new TreeSet<>(tokenBlacklist) + " "
+                + new TreeSet<>(tagBlacklist) + " " + nameTagPrefix;
+    }
+
+    /*-********************************************-*
+     *  RULES
+     *-********************************************-*/
+
+    public boolean isBlacklistedToken(String token) {
+        return tokenBlacklist.contains(token);
+    }
+
+    /**
+     * @return true if the tag set with the given {@link TagSets} id contains a blacklisted tag
+     */
+    public boolean isBlacklistedTagSet(int tagSetId) {
+        return TagSets.intersects(TagSets.getMask(tagSetId), tagBlacklistMask);
+    }
+
+    public boolean isName(Set<String> tags) {
+        return tags.stream().allMatch(tag -> tag.startsWith(nameTagPrefix));
+    }
+
+    public Language getLanguage() {
+        return language;
+    }
+
+    /**
+     * @return a description of the language and all rules, which is the same for rules that tag and filter the same
+     */
+    String getDescription() {
+        return description;
+    }
+}
@@ -0,0 +1,316 @@
+package be.thomaswinters.similarreplacer;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Generates from several corpora, or from parts of one large corpus, where every shard has its own templates, context
+ * lines, context index and word frequencies. A shard is only loaded and indexed when it is first used or explicitly
+ * activated, and can be deactivated again to free its memory, such that memory and indexing time depend on the shards
+ * in use rather than on all data. Shards loaded using a {@link TaggedCorpusCache} keep their index memory-mapped
+ * instead of on the heap.
+ * <p>
+ * The shard to generate from is chosen for every generation. Instances are safe to use from multiple threads.
+ */
+public class ShardedTemplateGenerator {
+    private final Map<String, Shard> shards = new LinkedHashMap<>();
+    private volatile IGenerationMetrics metrics = IGenerationMetrics.NONE;
+
+    /*-********************************************-*
+     *  SHARDS
+     *-********************************************-*/
+
+    private final class Shard {
+        private final String name;
+        private final Callable<DynamicTemplateGenerator> loader;
+        private volatile DynamicTemplateGenerator generator;
+
+        private Shard(String name, Callable<DynamicTemplateGenerator> loader) {
+            this.name = name;
+            this.loader = loader;
+        }
+
+        private DynamicTemplateGenerator getGenerator() {
+            DynamicTemplateGenerator loaded = generator;
+            if (loaded == null) {
+                synchronized (this) {
+                    loaded = generator;
+                    if (loaded == null) {
+                        loaded = load();
+                        loaded.setMetrics(metrics);
+                        generator = loaded;
+                    }
+                }
+            }
+            return loaded;
+        }
+
+        private DynamicTemplateGenerator load() {
+            try {
+                return loader.call();
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not load shard " + name, e);
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new RuntimeException("Could not load shard " + name, e);
+            }
+        }
+
+        private synchronized void unload() {
+            generator = null;
+        }
+    }
+
+    /**
+     * Adds a shard of which the templates and context lines are already in memory
+     */
+    public synchronized void addShard(String name, List<String> templates, List<String> contextCorpus) {
+        putShard(name, () -> new DynamicTemplateGenerator(templates, contextCorpus));
+    }
+
+    /**
+     * Adds a shard that reads its templates and context lines from the given JSON corpus files when it is loaded
+     */
+    public synchronized void addShard(String name, Path templatesFile, Path contextFile) {
+        putShard(name, () -> new DynamicTemplateGenerator(readCorpus(templatesFile), readCorpus(contextFile)));
+    }
+
+    /**
+     * Adds a shard that reads its templates and context lines from the given JSON corpus files when it is loaded, and
+     * memory-maps its tagged version from the given cache, tagging and storing it there first if needed
+     */
+    public synchronized void addShard(String name, Path templatesFile, Path contextFile, TaggedCorpusCache cache) {
+        putShard(name, () -> {
+            List<String> templates = readCorpus(templatesFile);
+            List<String> contextCorpus = readCorpus(contextFile);
+            return new DynamicTemplateGenerator(templates, contextCorpus, cache.get(templates, contextCorpus));
+        });
+    }
+
+    /**
+     * Splits the context lines into the given number of shards of consecutive lines, named the prefix followed by the
+     * number of the shard, which all use the given templates. Every shard keeps a copy of its own lines, such that the
+     * given context corpus does not have to stay in memory.
+     *
+     * @return the names of the added shards
+     */
+    public synchronized List<String> addPartitionedShards(String prefix, List<String> templates,
+                                                          List<String> contextCorpus, int numberOfShards) {
+        checkNumberOfShards(numberOfShards);
+        List<String> names = new ArrayList<>(numberOfShards);
+        for (int i = 0; i < numberOfShards; i++) {
+            int from = getShardStart(contextCorpus.size(), i, numberOfShards);
+            int to = getShardStart(contextCorpus.size(), i + 1, numberOfShards);
+            String name = prefix + i;
+            addShard(name, templates, new ArrayList<>(contextCorpus.subList(from, to)));
+            names.add(name);
+        }
+        return names;
+    }
+
+    /**
+     * Splits the context lines of the given JSON corpus file into the given number of shards of consecutive lines,
+     * named the prefix followed by the number of the shard, which all use the templates of the given file. The context
+     * file is only scanned to find the byte offset at which every shard starts, and every shard only reads its own
+     * lines from there when it is loaded. The templates file is only read once, by the first shard that is loaded.
+     *
+     * @return the names of the added shards
+     */
+    public synchronized List<String> addPartitionedShards(String prefix, Path templatesFile, Path contextFile,
+                                                          int numberOfShards) throws IOException {
+        return addPartitionedShards(prefix, templatesFile, contextFile, numberOfShards, null);
+    }
+
+    /**
+     * Splits the context lines of the given JSON corpus file like
+     * {@link #addPartitionedShards(String, Path, Path, int)}, but memory-maps the tagged version of every shard from
+     * the given cache, tagging and storing it there first if needed
+     *
+     * @return the names of the added shards
+     */
+    public synchronized List<String> addPartitionedShards(String prefix, Path templatesFile, Path contextFile,
+                                                          int numberOfShards, TaggedCorpusCache cache)
+            throws IOException {
+        checkNumberOfShards(numberOfShards);
+        int numberOfLines = JsonCorpusReader.countLines(contextFile);
+        int[] shardStarts = new int[numberOfShards];
+        for (int i = 0; i < numberOfShards; i++) {
+            shardStarts[i] = getShardStart(numberOfLines, i, numberOfShards);
+        }
+        // Shards starting at the end of the file are empty, so they need no offset
+        int[] startsInFile = Arrays.stream(shardStarts).filter(start -> start < numberOfLines).toArray();
+        long[] offsets = JsonCorpusReader.findLineOffsets(contextFile, startsInFile);
+        Supplier<List<String>> templates = Suppliers.memoize(() -> {
+            try {
+                return Collections.unmodifiableList(readCorpus(templatesFile));
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not read the templates of " + prefix, e);
+            }
+        });
+
+        List<String> names = new ArrayList<>(numberOfShards);
+        for (int i = 0; i < numberOfShards; i++) {
+            long offset = i < offsets.length ? offsets[i] : -1;
+            int size = getShardStart(numberOfLines, i + 1, numberOfShards) - shardStarts[i];
+            String name = prefix + i;
+            putShard(name, () -> {
+                List<String> contextCorpus = readCorpus(contextFile, offset, size);
+                return cache == null
+                        ? new DynamicTemplateGenerator(templates.get(), contextCorpus)
+                        : new DynamicTemplateGenerator(templates.get(), contextCorpus,
+                        cache.get(templates.get(), contextCorpus));
+            });
+            names.add(name);
+        }
+        return names;
+    }
+
+    private static void checkNumberOfShards(int numberOfShards) {
+        if (numberOfShards < 1) {
+            throw new IllegalArgumentException("Number of shards should be at least 1, but was " + numberOfShards);
+        }
+    }
+
+    /**
+     * @return the index of the first line of the given shard
+     */
+    private static int getShardStart(int numberOfLines, int shard, int numberOfShards) {
+        return (int) ((long) numberOfLines * shard / numberOfShards);
+    }
+
+    private void putShard(String name, Callable<DynamicTemplateGenerator> loader) {
+        if (shards.containsKey(name)) {
+            throw new IllegalArgumentException("There is already a shard named " + name);
+        }
+        shards.put(name, new Shard(name, loader));
+    }
+
+    private synchronized Shard getShard(String name) {
+        Shard shard = shards.get(name);
+        if (shard == null) {
+            throw new IllegalArgumentException("Unknown shard: " + name);
+        }
+        return shard;
+    }
+
+    private static List<String> readCorpus(Path file) throws IOException {
+        return JsonCorpusReader.readAll(Files.newBufferedReader(file, Charsets.UTF_8));
+    }
+
+    /**
+     * @return the given number of lines of the given corpus file, starting at the given byte offset
+     */
+    private static List<String> readCorpus(Path file, long offset, int numberOfLines) throws IOException {
+        List<String> lines = new ArrayList<>(numberOfLines);
+        if (numberOfLines == 0) {
+            return lines;
+        }
+        try (JsonCorpusReader reader = JsonCorpusReader.open(file, offset)) {
+            while (lines.size() < numberOfLines && reader.hasNext()) {
+                lines.add(reader.next());
+            }
+        }
+        return lines;
+    }
+
+    /*-********************************************-*
+     *  ACTIVATION
+     *-********************************************-*/
+
+    /**
+     * Loads and indexes the given shards that are not loaded yet, using the given number of threads
+     */
+    public void activate(Collection<String> names, int parallelism) {
+        List<Shard> toLoad = new ArrayList<>();
+        for (String name : names) {
+            toLoad.add(getShard(name));
+        }
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            pool.submit(() -> toLoad.parallelStream().forEach(Shard::getGenerator)).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Drops the loaded corpus and index of the given shard, such that they can be garbage collected. Generations that
+     * already started keep using them, and the next generation from the shard loads it again.
+     */
+    public void deactivate(String name) {
+        getShard(name).unload();
+    }
+
+    public boolean isActive(String name) {
+        return getShard(name).generator != null;
+    }
+
+    public synchronized Set<String> getShardNames() {
+        return Collections.unmodifiableSet(new LinkedHashSet<>(shards.keySet()));
+    }
+
+    /*-********************************************-*
+     *  GENERATING
+     *-********************************************-*/
+
+    /**
+     * @return the generator of the given shard, loading the shard if it is not active
+     */
+    public DynamicTemplateGenerator getGenerator(String shardName) {
+        return getShard(shardName).getGenerator();
+    }
+
+    /**
+     * Generates from the given template using the context lines of the given shard
+     */
+    public Optional<String> generate(String shardName, String dynamicTemplate, int numberOfContextLines,
+                                     boolean consequtiveContextLines, Random random) {
+        return getGenerator(shardName).generate(dynamicTemplate, numberOfContextLines, consequtiveContextLines,
+                random);
+    }
+
+    /**
+     * Generates from a random template of the given shard
+     */
+    public Optional<String> generate(String shardName, int numberOfContextLines, boolean consequtiveContextLines,
+                                     Random random) throws IOException {
+        return getGenerator(shardName).generate(numberOfContextLines, consequtiveContextLines, random);
+    }
+
+    /*-********************************************-*
+     *  METRICS
+     *-********************************************-*/
+
+    /**
+     * Reports the generations of all shards, including shards loaded later, to the given metrics
+     */
+    public synchronized void setMetrics(IGenerationMetrics metrics) {
+        this.metrics = metrics;
+        for (Shard shard : shards.values()) {
+            synchronized (shard) {
+                if (shard.generator != null) {
+                    shard.generator.setMetrics(metrics);
+                }
+            }
+        }
+    }
+}
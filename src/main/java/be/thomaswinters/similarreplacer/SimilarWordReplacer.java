@@ -2,25 +2,26 @@ package be.thomaswinters.similarreplacer;
 
 import be.thomaswinters.LambdaExceptionUtil;
 import be.thomaswinters.markov.model.data.bags.Bag;
-import be.thomaswinters.markov.model.data.bags.WriteableBag;
-import be.thomaswinters.markov.model.data.bags.impl.ExclusionBag;
-import be.thomaswinters.markov.model.data.bags.impl.MutableBag;
 import be.thomaswinters.replacement.Replacer;
 import org.languagetool.AnalyzedSentence;
 import org.languagetool.AnalyzedToken;
 import org.languagetool.AnalyzedTokenReadings;
 import org.languagetool.JLanguageTool;
-import org.languagetool.language.Dutch;
 
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.ObjIntConsumer;
 import java.util.stream.Collectors;
 
 public class SimilarWordReplacer {
     /*-********************************************-*
      *  STATIC TOOLS
      *-********************************************-*/
-    private static final JLanguageTool langTool = new JLanguageTool(new Dutch());
+    /**
+     * JLanguageTool is not thread-safe, so every thread analyses text using its own instance per language
+     */
+    private static final ThreadLocal<Map<String, JLanguageTool>> langTools = ThreadLocal.withInitial(HashMap::new);
     private static final RandomReplacementPicker PICKER = new RandomReplacementPicker();
 
     /*-********************************************-*/
@@ -29,48 +30,136 @@ public class SimilarWordReplacer {
      *  INSTANCE VARIABLES
      *-********************************************-*/
 
-    private Map<Set<String>, WriteableBag<String>> contextWordsMap = new HashMap<>();
+    /**
+     * Bag of the context words and their replacement candidates (only created when needed), indexed by the id of
+     * their tag set
+     */
+    private final List<CompactBag> contextBagsByTagSet = new ArrayList<>();
+    private final ContextWordIds contextWordIds = new ContextWordIds();
+    private final List<ReplacementCandidates> replacementCandidatesByTagSet = new ArrayList<>();
 
+    private final ReplacementRules rules;
+    /**
+     * Cache of the analysed dynamic templates, or null if templates are analysed every time
+     */
+    private final TemplateAnalysisCache templateAnalysisCache;
     private boolean allowsName = false;
+    /**
+     * Distinct tags of the token being classified, reused for every token
+     */
+    private String[] tagBuffer = new String[8];
 
     /*-********************************************-*/
 
+    public SimilarWordReplacer(ReplacementRules rules, TemplateAnalysisCache templateAnalysisCache) {
+        this.rules = rules;
+        this.templateAnalysisCache = templateAnalysisCache;
+    }
+
+    public SimilarWordReplacer(ReplacementRules rules) {
+        this(rules, null);
+    }
+
+    public SimilarWordReplacer() {
+        this(ReplacementRules.DUTCH);
+    }
+
+    private JLanguageTool getLanguageTool() {
+        return langTools.get().computeIfAbsent(rules.getLanguage().getShortNameWithCountryAndVariant(),
+                e -> new JLanguageTool(rules.getLanguage()));
+    }
+
     /*-********************************************-*
      *  TAGS & TOKEN FILTERING
      *-********************************************-*/
 
     protected Set<String> getTags(AnalyzedTokenReadings token) {
         return token.getReadings().stream().filter(e -> !e.hasNoTag()).map(AnalyzedToken::getPOSTag)
-                .filter(e -> e != null && !e.equals("SENT_END") && !e.equals("PARA_END")).collect(Collectors.toSet());
-    }
-
-    private static final Set<String> REPLACEMENT_TOKEN_BLACKLIST = new HashSet<>(Arrays.asList(
-            // Lidwoorden
-            "de", "het", "een",
-            // Algemene onderwerpen
-            "ik", "jij", "je", "u", "wij", "we", "jullie", "hij", "zij", "ze",
-            // Algemene persoonlijke voornaamwoorden
-            "hen", "hem", "haar", "mijn", "uw", "jouw", "onze", "ons",
-            // Algemene werkwoorden
-            "ben", "bent", "is", "was", "waren", "geweest", "heb", "hebt", "heeft", "hebben", "gehad", "word", "wordt",
-            "worden", "geworden", "werd", "werden", "laat", "laten", "liet", "lieten", "gelaten", "ga", "gaat", "gaan",
-            "gegaan", "ging", "gingen", "moet", "moeten", "moest", "moesten", "gemoeten", "mag", "mogen", "mocht",
-            "mochten", "gemogen", "zal", "zullen", "zult", "zou", "zouden", "kan", "kunnen", "gekunt", "gekunnen",
-            "hoef", "hoeft", "hoeven", "hoefde", "hoefden", "gehoeven",
-            // Veelgebruikte woorden
-            "niet", "iets", "dan", "voort", "erna", "welke", "maar", "van", "voor", "met", "binnenkort", "in", "en",
-            "teveel", "om", "alles", "elke", "al", "echt", "waar", "waarom", "hoe", "o.a.", "beetje", "enkel", "goed",
-            "best", "werkende", "meer", "voor", "zit", "echt", "uit", "even", "wel"));
-    private static final Set<String> REPLACEMENT_TAG_BLACKLIST = new HashSet<>(
-            Arrays.asList("AVwaar", "AVwr", "DTh", "DTd", "DTe", "DTp", "PRte", "PRnaar", "PRvan", "PN2", "PRVoor",
-                    "PRmet", "PRop", "PRin", "PRom", "PRaan", "AVdr", "CJo"));
-
-    private List<AnalyzedTokenReadings> filterTokens(List<AnalyzedTokenReadings> tokens) {
-        return tokens.stream().filter(e -> e.getToken().trim().length() > 0).filter(e -> !e.getReadings().isEmpty())
-                .filter(token -> !getTags(token).isEmpty())
-                .filter(token -> getTags(token).stream().allMatch(tag -> !REPLACEMENT_TAG_BLACKLIST.contains(tag)))
-                .filter(token -> !REPLACEMENT_TOKEN_BLACKLIST.contains(token.getToken().toLowerCase()))
-                .collect(Collectors.toList());
+                .filter(SimilarWordReplacer::isTag).collect(Collectors.toSet());
+    }
+
+    private static boolean isTag(String posTag) {
+        return posTag != null && !posTag.equals("SENT_END") && !posTag.equals("PARA_END");
+    }
+
+    /**
+     * Calculates the {@link TagSets} id of the tags of the token, i.e. of {@link #getTags(AnalyzedTokenReadings)},
+     * without creating a set of its tags
+     */
+    protected int getTagSetId(AnalyzedTokenReadings token) {
+        int numberOfTags = 0;
+        for (int i = 0; i < token.getReadingsLength(); i++) {
+            AnalyzedToken reading = token.getAnalyzedToken(i);
+            String tag = reading.getPOSTag();
+            if (!reading.hasNoTag() && isTag(tag) && !contains(tagBuffer, numberOfTags, tag)) {
+                if (numberOfTags == tagBuffer.length) {
+                    tagBuffer = Arrays.copyOf(tagBuffer, numberOfTags * 2);
+                }
+                tagBuffer[numberOfTags++] = tag;
+            }
+        }
+        int tagSetId = TagSets.getId(tagBuffer, numberOfTags);
+        Arrays.fill(tagBuffer, 0, numberOfTags, null);
+        return tagSetId;
+    }
+
+    private static boolean contains(String[] tags, int numberOfTags, String tag) {
+        for (int i = 0; i < numberOfTags; i++) {
+            if (tags[i].equals(tag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Calculates the tags of the token once, such that they can be carried along with the token
+     */
+    protected TaggedToken tag(AnalyzedTokenReadings token) {
+        return new TaggedToken(token, getTags(token));
+    }
+
+    /**
+     * Classifies the token in one pass over all rules
+     *
+     * @return the tagged token if it is allowed to be replaced, null otherwise
+     */
+    private TaggedToken classify(AnalyzedTokenReadings token) {
+        int tagSetId = classifyTagSetId(token);
+        return tagSetId < 0 ? null : new TaggedToken(token, tagSetId);
+    }
+
+    /**
+     * Classifies the token without creating anything for it
+     *
+     * @return the {@link TagSets} id of the tags of the token if it is allowed to be replaced, -1 otherwise
+     */
+    private int classifyTagSetId(AnalyzedTokenReadings token) {
+        if (isBlank(token.getToken()) || token.getReadingsLength() == 0
+                || rules.isBlacklistedToken(token.getToken())) {
+            return -1;
+        }
+        int tagSetId = getTagSetId(token);
+        if (TagSets.get(tagSetId).isEmpty() || rules.isBlacklistedTagSet(tagSetId)) {
+            return -1;
+        }
+        return tagSetId;
+    }
+
+    private static boolean isBlank(String token) {
+        for (int i = 0; i < token.length(); i++) {
+            if (token.charAt(i) > ' ') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Splits the given line in words, without tagging them
+     */
+    public List<String> tokenize(String line) {
+        return getLanguageTool().getLanguage().getWordTokenizer().tokenize(line);
     }
 
     /*-********************************************-*/
@@ -79,60 +168,257 @@ public class SimilarWordReplacer {
      *  PROCESSING KNOWLEDGE INPUT
      *-********************************************-*/
     public void addContextWords(String contextLine) throws IOException {
-        List<AnalyzedSentence> answers = langTool.analyzeText(contextLine);
+        forEachContextWord(contextLine, (word, tagSetId) -> addContextWord(word, tagSetId));
+    }
+
+    /**
+     * Analyses the given context line and passes every replaceable word in it, together with the id of its set of
+     * POS-tags (see {@link TagSets}), to the given consumer.
+     */
+    public void forEachContextWord(String contextLine, ObjIntConsumer<String> consumer) throws IOException {
+        List<AnalyzedSentence> answers = getLanguageTool().analyzeText(contextLine);
 
         for (AnalyzedSentence analyzedSentence : answers) {
-            List<AnalyzedTokenReadings> tokens = filterTokens(Arrays.asList(analyzedSentence.getTokens()));
-            for (AnalyzedTokenReadings token : tokens) {
-                if (token.getToken().trim().length() > 0) {
-                    Set<String> tags = getTags(token);
-
-                    // Add if valid
-                    if (tags != null && tags.size() > 0) {
-                        if (!contextWordsMap.containsKey(tags)) {
-                            contextWordsMap.put(tags, new MutableBag<String>());
-                        }
-                        contextWordsMap.get(tags).add(token.getToken());
-                    }
+            for (AnalyzedTokenReadings token : analyzedSentence.getTokens()) {
+                int tagSetId = classifyTagSetId(token);
+                if (tagSetId >= 0) {
+                    consumer.accept(token.getToken(), tagSetId);
                 }
             }
         }
 
     }
 
+    public void addContextWord(Set<String> tags, String word) {
+        addContextWord(word, TagSets.getId(tags));
+    }
+
+    /**
+     * Adds a single word that was already analysed
+     */
+    public void addContextWord(String word, int tagSetId) {
+        getOrCreateContextBag(tagSetId).add(contextWordIds.getOrCreateId(word));
+        invalidate(tagSetId);
+    }
+
+    /**
+     * Adds a single word of a {@link ContextIndex}, using its id in the index instead of the word itself
+     */
+    void addContextWord(ContextIndex contextIndex, int wordId, int tagSetId) {
+        if (!contextWordIds.usesIndex(contextIndex)) {
+            addContextWord(contextIndex.getWord(wordId), tagSetId);
+            return;
+        }
+        getOrCreateContextBag(tagSetId).add(wordId);
+        invalidate(tagSetId);
+    }
+
+    private CompactBag getOrCreateContextBag(int tagSetId) {
+        CompactBag bag = get(contextBagsByTagSet, tagSetId);
+        if (bag == null) {
+            bag = new CompactBag(contextWordIds);
+            set(contextBagsByTagSet, tagSetId, bag);
+        }
+        return bag;
+    }
+
+    /**
+     * Removes one occurrence of the given context word, only updating its count. The replacer then contains the
+     * same words as if the remaining words were added to an empty replacer, although possibly in another order.
+     */
+    public void removeContextWord(String word, int tagSetId) {
+        removeContextWordWithId(contextWordIds.getId(word), tagSetId);
+    }
+
+    /**
+     * Removes one occurrence of a word of a {@link ContextIndex}, e.g. when its line leaves a {@link ContextWindow}
+     */
+    void removeContextWord(ContextIndex contextIndex, int wordId, int tagSetId) {
+        if (!contextWordIds.usesIndex(contextIndex)) {
+            removeContextWord(contextIndex.getWord(wordId), tagSetId);
+            return;
+        }
+        removeContextWordWithId(wordId, tagSetId);
+    }
+
+    private void removeContextWordWithId(int wordId, int tagSetId) {
+        CompactBag bag = get(contextBagsByTagSet, tagSetId);
+        if (bag != null && bag.remove(wordId)) {
+            invalidate(tagSetId);
+        }
+    }
+
+    /**
+     * Drops the replacement candidates calculated for the bag of the given tag set, as the bag changed
+     */
+    private void invalidate(int tagSetId) {
+        if (get(replacementCandidatesByTagSet, tagSetId) != null) {
+            set(replacementCandidatesByTagSet, tagSetId, null);
+        }
+    }
+
     public void addContextWords(List<String> lines) {
         lines.forEach(LambdaExceptionUtil.rethrowConsumer(this::addContextWords));
     }
+
+    /**
+     * Ids of the context words in their bags: the word ids of the context index the words are added from, without
+     * looking up the words, and negative ids for words added without an index. Only the first index words are added
+     * from is used, as long as no other words were added before, such that every word has one id.
+     */
+    private static final class ContextWordIds implements CompactBag.Vocabulary {
+        /**
+         * Id of words that were never added
+         */
+        private static final int NO_ID = Integer.MIN_VALUE;
+
+        private ContextIndex contextIndex;
+        private final Map<String, Integer> otherWordIds = new HashMap<>();
+        private final List<String> otherWords = new ArrayList<>();
+
+        /**
+         * @return true if the ids of the words of the given index are also their ids in the bags
+         */
+        private boolean usesIndex(ContextIndex index) {
+            if (contextIndex == null && otherWords.isEmpty()) {
+                contextIndex = index;
+            }
+            return contextIndex == index;
+        }
+
+        private int getOrCreateId(String word) {
+            int id = getId(word);
+            if (id == NO_ID) {
+                otherWords.add(word);
+                id = -otherWords.size();
+                otherWordIds.put(word, id);
+            }
+            return id;
+        }
+
+        @Override
+        public int getId(String word) {
+            if (contextIndex != null) {
+                int id = contextIndex.getWordId(word);
+                if (id >= 0) {
+                    return id;
+                }
+            }
+            Integer id = otherWordIds.get(word);
+            return id != null ? id : NO_ID;
+        }
+
+        @Override
+        public String getWord(int id) {
+            return id >= 0 ? contextIndex.getWord(id) : otherWords.get(-id - 1);
+        }
+    }
     /*-********************************************-*/
 
     /*-********************************************-*
      *  REPLACEABLE CALCULATION
      *-********************************************-*/
     public int getReplaceableSize(Set<String> tags) {
-        if (!contextWordsMap.containsKey(tags)) {
+        return getReplaceableSize(TagSets.getId(tags));
+    }
+
+    public int getReplaceableSize(int tagSetId) {
+        CompactBag bag = getContextBag(tagSetId);
+        if (bag == null) {
             return 0;
         }
-        return contextWordsMap.get(tags).size();
+        return bag.size();
+    }
+
+    /**
+     * @return a bag of the context words having the given tags, or null if there are none
+     */
+    private CompactBag getContextBag(int tagSetId) {
+        CompactBag bag = get(contextBagsByTagSet, tagSetId);
+        return bag == null || bag.isEmpty() ? null : bag;
+    }
+
+    /**
+     * @return the context words having the given tags, reusing the structures calculated for them until a context
+     * word with these tags is added or removed. The candidates share the bag of this replacer, so they should not be
+     * used anymore after such a change.
+     */
+    public ReplacementCandidates getReplacementCandidates(int tagSetId) {
+        ReplacementCandidates candidates = get(replacementCandidatesByTagSet, tagSetId);
+        if (candidates == null) {
+            candidates = new ReplacementCandidates(getContextBag(tagSetId));
+            set(replacementCandidatesByTagSet, tagSetId, candidates);
+        }
+        return candidates;
+    }
+
+    private static <E> E get(List<E> byTagSet, int tagSetId) {
+        return tagSetId < byTagSet.size() ? byTagSet.get(tagSetId) : null;
+    }
+
+    private static <E> void set(List<E> byTagSet, int tagSetId, E value) {
+        while (byTagSet.size() <= tagSetId) {
+            byTagSet.add(null);
+        }
+        byTagSet.set(tagSetId, value);
     }
 
     public List<AnalyzedTokenReadings> getReplaceableTokens(String line) {
+        return getReplaceableTaggedTokens(line).stream().map(TaggedToken::getReadings).collect(Collectors.toList());
+    }
+
+    public List<TaggedToken> getReplaceableTaggedTokens(String line) {
+        return getReplaceableTaggedTokens(analyseTemplate(line));
+    }
+
+    /**
+     * @return the tokens of the analysed template that can be replaced by at least one other context word
+     */
+    public List<TaggedToken> getReplaceableTaggedTokens(AnalysedTemplate template) {
+        List<TaggedToken> replaceableTokens = new ArrayList<>();
+        for (TaggedToken token : template.getReplaceableTokens()) {
+            if (getReplaceableSize(token.getTagSetId()) > 1) {
+                replaceableTokens.add(token);
+            }
+        }
+        return replaceableTokens;
+    }
+
+    /**
+     * Analyses the given template, or takes its analysis from the template analysis cache if there is one
+     */
+    public AnalysedTemplate analyseTemplate(String line) {
+        return templateAnalysisCache != null
+                ? templateAnalysisCache.get(line, this::analyse)
+                : analyse(line);
+    }
+
+    private AnalysedTemplate analyse(String line) {
         List<AnalyzedSentence> answers;
         try {
-            answers = langTool.analyzeText(line);
+            answers = getLanguageTool().analyzeText(line);
         } catch (IOException e1) {
             throw new RuntimeException(e1);
         }
-        List<AnalyzedTokenReadings> tokens = new ArrayList<>();
+        List<TaggedToken> tokens = new ArrayList<>();
+        List<String> words = new ArrayList<>();
+        IntArrayList wordStarts = new IntArrayList();
+        // Token positions are relative to their sentence
+        int sentenceStart = 0;
         for (AnalyzedSentence analyzedSentence : answers) {
-            tokens.addAll(Arrays.asList(analyzedSentence.getTokens()));
-
+            for (AnalyzedTokenReadings token : analyzedSentence.getTokens()) {
+                if (!isBlank(token.getToken())) {
+                    words.add(token.getToken());
+                    wordStarts.add(sentenceStart + token.getStartPos());
+                }
+                TaggedToken taggedToken = classify(token);
+                if (taggedToken != null) {
+                    tokens.add(taggedToken);
+                }
+            }
+            sentenceStart += analyzedSentence.getText().length();
         }
-
-        tokens = filterTokens(tokens).stream().filter(e -> getReplaceableSize(getTags(e)) > 1)
-                .collect(Collectors.toList());
-
-        return tokens;
-
+        return new AnalysedTemplate(line, tokens, words.toArray(new String[0]), wordStarts.toArray());
     }
 
     /**
@@ -145,6 +431,25 @@ public class SimilarWordReplacer {
     public Optional<Replacer> createReplacer(AnalyzedTokenReadings token,
                                              Bag<String> replacePossibilities,
                                              IReplacementPicker replacementPicker) {
+        if (token == null) {
+            return Optional.empty();
+        }
+        return createReplacer(tag(token), new ReplacementCandidates(replacePossibilities), replacementPicker,
+                ThreadLocalRandom.current());
+    }
+
+    public Optional<Replacer> createReplacer(TaggedToken token,
+                                             ReplacementCandidates candidates,
+                                             IReplacementPicker replacementPicker,
+                                             Random random) {
+        return pickReplacement(token, candidates, replacementPicker, random).map(WordReplacement::toReplacer);
+    }
+
+    public Optional<WordReplacement> pickReplacement(TaggedToken token,
+                                                     ReplacementCandidates candidates,
+                                                     IReplacementPicker replacementPicker,
+                                                     Random random) {
+        Bag<String> replacePossibilities = candidates.getBag();
 
         // Null check
         if (token == null || token.getToken().length() == 0) {
@@ -152,7 +457,7 @@ public class SimilarWordReplacer {
         }
 
         // Check if name:
-        if (!allowsName && getTags(token).stream().allMatch(tag -> tag.startsWith("PN"))) {
+        if (!allowsName && rules.isName(token.getTags())) {
             return Optional.empty();
         }
 
@@ -162,20 +467,12 @@ public class SimilarWordReplacer {
             return Optional.empty();
         }
 
-        // Remove word itself from possible replacements, as to not replace with same token
-        Bag<String> bag = new ExclusionBag<String>(replacePossibilities, Arrays.asList(token.getToken()));
-        String replacement = replacementPicker.pickReplacement(token.getToken(), bag);
+        // Pick from the possible replacements other than the word itself, as to not replace with same token
+        String replacement = replacementPicker.pickReplacement(token.getToken(), candidates, random);
 
-        // Create replacer object
-        Replacer replacer = new Replacer(token.getToken(), replacement, false, true);
-
-        return Optional.of(replacer);
+        return Optional.of(new WordReplacement(token.getToken(), replacement));
     }
 
-
-
-
-
     /**
      * Calculates all the POS-tags for a particular dynamic template to discover which tokens from the contextWordsMap
      * would be a great possible replacement
@@ -183,14 +480,33 @@ public class SimilarWordReplacer {
      * @return a list of replacers that would be suitable for the dynamic template
      */
     public List<Replacer> calculatePossibleReplacements(String dynamicTemplate, IReplacementPicker picker) {
-        Set<AnalyzedTokenReadings> tokens = new LinkedHashSet<>(getReplaceableTokens(dynamicTemplate));
-        List<Replacer> replacers = new ArrayList<>();
-        for (AnalyzedTokenReadings token : tokens) {
-            Bag<String> replacePossibilities = contextWordsMap.get(getTags(token));
+        return calculatePossibleReplacements(dynamicTemplate, picker, ThreadLocalRandom.current());
+    }
+
+    public List<Replacer> calculatePossibleReplacements(String dynamicTemplate, IReplacementPicker picker,
+                                                        Random random) {
+        return createReplacers(new LinkedHashSet<>(getReplaceableTaggedTokens(dynamicTemplate)), picker, random);
+    }
+
+    /**
+     * @return a replacer for each of the given tokens for which a replacement could be picked
+     */
+    public List<Replacer> createReplacers(Collection<TaggedToken> tokens, IReplacementPicker picker, Random random) {
+        return pickReplacements(tokens, picker, random).stream().map(WordReplacement::toReplacer)
+                .collect(Collectors.toList());
+    }
 
-            createReplacer(token, replacePossibilities, picker).ifPresent(replacers::add);
+    /**
+     * @return a word replacement for each of the given tokens for which a replacement could be picked
+     */
+    public List<WordReplacement> pickReplacements(Collection<TaggedToken> tokens, IReplacementPicker picker,
+                                                  Random random) {
+        List<WordReplacement> replacements = new ArrayList<>();
+        for (TaggedToken token : tokens) {
+            pickReplacement(token, getReplacementCandidates(token.getTagSetId()), picker, random)
+                    .ifPresent(replacements::add);
         }
-        return replacers;
+        return replacements;
     }
 
     /*-********************************************-*/
@@ -0,0 +1,20 @@
+package be.thomaswinters.similarreplacer;
+
+/**
+ * Bit mixing functions of the SplitMix64 random generator, used to derive independent seeds and hashes
+ */
+final class SplitMix64 {
+    static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+    private SplitMix64() {
+    }
+
+    /**
+     * Finalizer of SplitMix64, such that values that are close to each other result in uncorrelated outputs
+     */
+    static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,180 @@
+package be.thomaswinters.similarreplacer;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Canonicalises sets of POS-tags to small integer ids, such that tag sets can be compared and used as keys without
+ * hashing their tags. Every single tag also gets an id, and every tag set is stored as a bitmask of its tag ids, such
+ * that checking a tag set against a set of tags is a few bitwise operations. Ids are shared by the whole JVM and are
+ * only valid during its run.
+ * <p>
+ * Known tag sets can also be looked up from an array of tags without creating a set, using a hash table keyed by the
+ * hash code of the set, which is the sum of the hash codes of its tags.
+ */
+public final class TagSets {
+    private static final Map<Set<String>, Integer> ids = new ConcurrentHashMap<>();
+    private static final List<Set<String>> tagSets = new CopyOnWriteArrayList<>();
+    private static final List<long[]> tagSetMasks = new CopyOnWriteArrayList<>();
+    private static final Map<String, Integer> tagIds = new ConcurrentHashMap<>();
+    /**
+     * Open addressing table of the ids of all tag sets by their hash code, replaced as a whole when a tag set is added
+     */
+    private static volatile HashTable idsByHash = new HashTable(new int[16], new int[16]);
+
+    private TagSets() {
+    }
+
+    /**
+     * @return the id of the given set of tags, assigning a new id if this set was not seen before
+     */
+    public static int getId(Set<String> tags) {
+        Integer id = ids.get(tags);
+        if (id != null) {
+            return id;
+        }
+        synchronized (tagSets) {
+            return ids.computeIfAbsent(Collections.unmodifiableSet(new HashSet<>(tags)), e -> {
+                tagSetMasks.add(createMask(e));
+                tagSets.add(e);
+                int newId = tagSets.size() - 1;
+                idsByHash = idsByHash.with(e.hashCode(), newId);
+                return newId;
+            });
+        }
+    }
+
+    /**
+     * Looks up the id of the set of the first tags of the given array, without creating a set if it was seen before
+     *
+     * @param tags         array starting with distinct tags, e.g. a buffer reused for every token
+     * @param numberOfTags number of tags at the start of the array that form the tag set
+     * @return the id of the set of the given tags, assigning a new id if this set was not seen before
+     */
+    public static int getId(String[] tags, int numberOfTags) {
+        int hash = 0;
+        for (int i = 0; i < numberOfTags; i++) {
+            hash += tags[i].hashCode();
+        }
+        HashTable table = idsByHash;
+        int mask = table.ids.length - 1;
+        for (int slot = mix(hash) & mask; table.ids[slot] != 0; slot = (slot + 1) & mask) {
+            if (table.hashes[slot] == hash && containsExactly(tagSets.get(table.ids[slot] - 1), tags, numberOfTags)) {
+                return table.ids[slot] - 1;
+            }
+        }
+        return getId(new HashSet<>(Arrays.asList(tags).subList(0, numberOfTags)));
+    }
+
+    private static boolean containsExactly(Set<String> tagSet, String[] tags, int numberOfTags) {
+        if (tagSet.size() != numberOfTags) {
+            return false;
+        }
+        for (int i = 0; i < numberOfTags; i++) {
+            if (!tagSet.contains(tags[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int mix(int hash) {
+        int h = hash * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Immutable hash table of tag set ids + 1 (0 for empty slots), together with the hash code of their tag set
+     */
+    private static final class HashTable {
+        private final int[] ids;
+        private final int[] hashes;
+
+        private HashTable(int[] ids, int[] hashes) {
+            this.ids = ids;
+            this.hashes = hashes;
+        }
+
+        /**
+         * @return a copy of this table that also contains the given id, grown if it would be more than half full
+         */
+        private HashTable with(int hash, int id) {
+            int capacity = (id + 1) * 2 > ids.length ? ids.length * 2 : ids.length;
+            HashTable table = new HashTable(new int[capacity], new int[capacity]);
+            for (int slot = 0; slot < ids.length; slot++) {
+                if (ids[slot] != 0) {
+                    table.put(hashes[slot], ids[slot] - 1);
+                }
+            }
+            table.put(hash, id);
+            return table;
+        }
+
+        private void put(int hash, int id) {
+            int mask = ids.length - 1;
+            int slot = mix(hash) & mask;
+            while (ids[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            ids[slot] = id + 1;
+            hashes[slot] = hash;
+        }
+    }
+
+    public static Set<String> get(int id) {
+        return tagSets.get(id);
+    }
+
+    /**
+     * @return the bitmask of the tag ids of the given tag set, which should not be modified
+     */
+    static long[] getMask(int id) {
+        return tagSetMasks.get(id);
+    }
+
+    /*-********************************************-*
+     *  TAG MASKS
+     *-********************************************-*/
+
+    /**
+     * @return the id of the given single tag, assigning a new id if this tag was not seen before
+     */
+    public static int getTagId(String tag) {
+        Integer id = tagIds.get(tag);
+        if (id != null) {
+            return id;
+        }
+        synchronized (tagSets) {
+            return tagIds.computeIfAbsent(tag, e -> tagIds.size());
+        }
+    }
+
+    /**
+     * @return a bitmask having the bits of the ids of the given tags set
+     */
+    static long[] createMask(Collection<String> tags) {
+        int[] ids = tags.stream().mapToInt(TagSets::getTagId).toArray();
+        long[] mask = new long[Arrays.stream(ids).max().orElse(-1) / Long.SIZE + 1];
+        for (int id : ids) {
+            mask[id / Long.SIZE] |= 1L << (id % Long.SIZE);
+        }
+        return mask;
+    }
+
+    static boolean intersects(long[] mask1, long[] mask2) {
+        for (int i = 0; i < Math.min(mask1.length, mask2.length); i++) {
+            if ((mask1[i] & mask2[i]) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the number of tag sets that got an id so far, which is also an upper bound of all ids
+     */
+    public static int size() {
+        return tagSets.size();
+    }
+}
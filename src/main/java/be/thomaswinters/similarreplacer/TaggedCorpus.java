@@ -0,0 +1,22 @@
+package be.thomaswinters.similarreplacer;
+
+/**
+ * The analysed form of a corpus: the tagged context words of every context line and the word frequencies
+ */
+public class TaggedCorpus {
+    private final ContextIndex contextIndex;
+    private final IWordFrequencies wordFrequencies;
+
+    public TaggedCorpus(ContextIndex contextIndex, IWordFrequencies wordFrequencies) {
+        this.contextIndex = contextIndex;
+        this.wordFrequencies = wordFrequencies;
+    }
+
+    public ContextIndex getContextIndex() {
+        return contextIndex;
+    }
+
+    public IWordFrequencies getWordFrequencies() {
+        return wordFrequencies;
+    }
+}
@@ -0,0 +1,217 @@
+package be.thomaswinters.similarreplacer;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import org.languagetool.JLanguageTool;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Stores tagged corpora on disk, such that a corpus only needs to be analysed by LanguageTool the first time it is
+ * used. Files are named after a hash of the content of the corpus and of the rules it is tagged with, and are
+ * memory-mapped when opened, such that opening an unchanged corpus does not need to parse or tag anything.
+ */
+public class TaggedCorpusCache {
+    private static final int MAGIC = 0x44544331;
+    private static final int VERSION = 1;
+    private static final String EXTENSION = ".dtcache";
+
+    private final Path directory;
+    private final ReplacementRules rules;
+
+    public TaggedCorpusCache(Path directory) {
+        this(directory, ReplacementRules.DUTCH);
+    }
+
+    /**
+     * @param rules rules to tag the corpora with, which are part of the name of the files
+     */
+    public TaggedCorpusCache(Path directory, ReplacementRules rules) {
+        this.directory = directory;
+        this.rules = rules;
+    }
+
+    /*-********************************************-*
+     *  ACCESS
+     *-********************************************-*/
+
+    /**
+     * Opens the cached tagged version of the given corpus, tagging and storing it first if it was not cached yet
+     */
+    public TaggedCorpus get(List<String> dynamicTemplateBases, List<String> contextCorpus) throws IOException {
+        HashCode key = calculateKey(rules, dynamicTemplateBases, contextCorpus);
+        Path file = directory.resolve(key + EXTENSION);
+        if (!Files.exists(file)) {
+            write(file, key, dynamicTemplateBases, contextCorpus);
+        }
+        return read(file, key);
+    }
+
+    static HashCode calculateKey(ReplacementRules rules, List<String> dynamicTemplateBases,
+                                 List<String> contextCorpus) {
+        Hasher hasher = Hashing.sha256().newHasher()
+                .putInt(VERSION)
+                .putString(JLanguageTool.VERSION, Charsets.UTF_8)
+                .putString(rules.getDescription(), Charsets.UTF_8);
+        putLines(hasher, dynamicTemplateBases);
+        putLines(hasher, contextCorpus);
+        return hasher.hash();
+    }
+
+    private static void putLines(Hasher hasher, List<String> lines) {
+        hasher.putInt(lines.size());
+        for (String line : lines) {
+            hasher.putInt(line.length()).putString(line, Charsets.UTF_8);
+        }
+    }
+
+    /*-********************************************-*
+     *  WRITING
+     *-********************************************-*/
+
+    private void write(Path file, HashCode key, List<String> dynamicTemplateBases, List<String> contextCorpus)
+            throws IOException {
+        TaggedCorpus taggedCorpus = new ParallelCorpusTagger(rules).tag(dynamicTemplateBases, contextCorpus);
+        ContextIndex index = taggedCorpus.getContextIndex();
+        // The tagger stores the frequencies in a table, with the words of the index first
+        WordFrequencyTable wordFrequencies = (WordFrequencyTable) taggedCorpus.getWordFrequencies();
+
+        List<String> tags = new ArrayList<>();
+        IntArrayList tagSetOffsets = new IntArrayList();
+        tagSetOffsets.add(0);
+        for (Set<String> tagSet : index.getTagSets()) {
+            tags.addAll(new TreeSet<>(tagSet));
+            tagSetOffsets.add(tags.size());
+        }
+
+        Files.createDirectories(directory);
+        Path tempFile = Files.createTempFile(directory, key.toString(), ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.write(key.asBytes());
+            writeStrings(out, tags);
+            writeInts(out, IntBuffer.wrap(tagSetOffsets.toArray()));
+            writeStrings(out, wordFrequencies.getVocabulary());
+            out.writeInt(index.getWords().size());
+            writeInts(out, wordFrequencies.getCounts());
+            writeInts(out, wordFrequencies.getPercentileCounts());
+            writeInts(out, wordFrequencies.getHashSlots());
+            writeInts(out, index.getLineOffsets());
+            writeInts(out, index.getEntryTagSets());
+            writeInts(out, index.getEntryWords());
+        }
+
+        // Only make the file visible once it is complete
+        try {
+            Files.move(tempFile, file, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static void writeInts(DataOutputStream out, IntBuffer ints) throws IOException {
+        out.writeInt(ints.remaining());
+        while (ints.hasRemaining()) {
+            out.writeInt(ints.get());
+        }
+    }
+
+    private static void writeStrings(DataOutputStream out, List<String> strings) throws IOException {
+        List<byte[]> encoded = new ArrayList<>(strings.size());
+        int[] offsets = new int[strings.size() + 1];
+        for (int i = 0; i < strings.size(); i++) {
+            encoded.add(strings.get(i).getBytes(Charsets.UTF_8));
+            offsets[i + 1] = offsets[i] + encoded.get(i).length;
+        }
+        writeInts(out, IntBuffer.wrap(offsets));
+        out.writeInt(offsets[strings.size()]);
+        for (byte[] bytes : encoded) {
+            out.write(bytes);
+        }
+        // Keep the integer arrays after this aligned
+        for (int i = offsets[strings.size()]; i % Integer.BYTES != 0; i++) {
+            out.writeByte(0);
+        }
+    }
+
+    /*-********************************************-*
+     *  READING
+     *-********************************************-*/
+
+    private static TaggedCorpus read(Path file, HashCode key) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        int magic = buffer.getInt();
+        int version = buffer.getInt();
+        byte[] storedKey = new byte[key.bits() / Byte.SIZE];
+        buffer.get(storedKey);
+        if (magic != MAGIC || version != VERSION || !Arrays.equals(storedKey, key.asBytes())) {
+            throw new IOException("Not a valid tagged corpus cache file for this corpus: " + file);
+        }
+
+        List<String> tags = readStrings(buffer);
+        IntBuffer tagSetOffsets = readInts(buffer);
+        List<Set<String>> tagSets = new ArrayList<>();
+        for (int i = 0; i + 1 < tagSetOffsets.limit(); i++) {
+            tagSets.add(Collections.unmodifiableSet(
+                    new HashSet<>(tags.subList(tagSetOffsets.get(i), tagSetOffsets.get(i + 1)))));
+        }
+
+        // Read in the same order as written
+        List<String> vocabulary = readStrings(buffer);
+        int numberOfContextWords = buffer.getInt();
+        IntBuffer counts = readInts(buffer);
+        IntBuffer percentileCounts = readInts(buffer);
+        IntBuffer hashSlots = readInts(buffer);
+        if (counts.limit() != vocabulary.size()
+                || percentileCounts.limit() != WordFrequencyTable.NUMBER_OF_PERCENTILES
+                || Integer.bitCount(hashSlots.limit()) != 1 || hashSlots.limit() <= vocabulary.size()) {
+            throw new IOException("Corrupt word frequencies in tagged corpus cache file: " + file);
+        }
+        WordFrequencyTable wordFrequencies = new WordFrequencyTable(vocabulary, counts, hashSlots, percentileCounts);
+
+        IntBuffer lineOffsets = readInts(buffer);
+        IntBuffer entryTagSets = readInts(buffer);
+        IntBuffer entryWords = readInts(buffer);
+        // The words of the index come first in the vocabulary, so the index looks its words up in the same hash slots
+        ContextIndex index = new ContextIndex(tagSets, vocabulary.subList(0, numberOfContextWords),
+                lineOffsets, entryTagSets, entryWords, hashSlots);
+
+        return new TaggedCorpus(index, wordFrequencies);
+    }
+
+    private static IntBuffer readInts(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        ByteBuffer slice = buffer.slice();
+        slice.limit(length * Integer.BYTES);
+        buffer.position(buffer.position() + length * Integer.BYTES);
+        return slice.asIntBuffer();
+    }
+
+    private static List<String> readStrings(ByteBuffer buffer) {
+        IntBuffer offsets = readInts(buffer);
+        int length = buffer.getInt();
+        ByteBuffer bytes = buffer.slice();
+        bytes.limit(length);
+        buffer.position(buffer.position() + (length + Integer.BYTES - 1) / Integer.BYTES * Integer.BYTES);
+        return new MappedStringList(bytes, offsets);
+    }
+}
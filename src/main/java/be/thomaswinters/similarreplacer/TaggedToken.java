@@ -0,0 +1,60 @@
+package be.thomaswinters.similarreplacer;
+
+import org.languagetool.AnalyzedTokenReadings;
+
+import java.util.Set;
+
+/**
+ * A token together with its POS-tags, such that the tags only need to be calculated once per token
+ */
+public class TaggedToken {
+    private final AnalyzedTokenReadings readings;
+    private final Set<String> tags;
+    private final int tagSetId;
+
+    public TaggedToken(AnalyzedTokenReadings readings, Set<String> tags) {
+        this.readings = readings;
+        this.tags = tags;
+        this.tagSetId = TagSets.getId(tags);
+    }
+
+    /**
+     * @param tagSetId {@link TagSets} id of the tags of the token
+     */
+    public TaggedToken(AnalyzedTokenReadings readings, int tagSetId) {
+        this.readings = readings;
+        this.tags = TagSets.get(tagSetId);
+        this.tagSetId = tagSetId;
+    }
+
+    public AnalyzedTokenReadings getReadings() {
+        return readings;
+    }
+
+    public String getToken() {
+        return readings.getToken();
+    }
+
+    public Set<String> getTags() {
+        return tags;
+    }
+
+    public int getTagSetId() {
+        return tagSetId;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof TaggedToken && readings.equals(((TaggedToken) o).readings);
+    }
+
+    @Override
+    public int hashCode() {
+        return readings.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return readings.getToken() + tags;
+    }
+}
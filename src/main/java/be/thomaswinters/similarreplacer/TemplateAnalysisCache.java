@@ -0,0 +1,93 @@
+package be.thomaswinters.similarreplacer;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+import java.util.concurrent.ExecutionException;
+import java.util.function.Function;
+
+/**
+ * Bounded cache of the analysis of dynamic templates, such that generating for the same template
+ * again (e.g. when retrying) does not need to tag it again. The least recently used templates are evicted first. The
+ * cache is thread-safe, but should only be shared by word replacers using the same {@link ReplacementRules}.
+ */
+public class TemplateAnalysisCache {
+    public static final int DEFAULT_MAXIMUM_SIZE = 1024;
+
+    private final Cache<String, AnalysedTemplate> cache;
+    private volatile IGenerationMetrics metrics = IGenerationMetrics.NONE;
+
+    public TemplateAnalysisCache(long maximumSize) {
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .recordStats()
+                .build();
+    }
+
+    public TemplateAnalysisCache() {
+        this(DEFAULT_MAXIMUM_SIZE);
+    }
+
+    /**
+     * @return the cached tokens of the given line, analysing and caching them using the analyser if they are absent
+     */
+    AnalysedTemplate get(String line, Function<String, AnalysedTemplate> analyser) {
+        boolean[] analysed = new boolean[1];
+        try {
+            AnalysedTemplate template = cache.get(line, () -> {
+                analysed[0] = true;
+                return analyser.apply(line);
+            });
+            metrics.increment(analysed[0] ? GenerationCounter.TEMPLATE_CACHE_MISSES
+                    : GenerationCounter.TEMPLATE_CACHE_HITS);
+            return template;
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * Reports every hit and miss of this cache to the given metrics
+     */
+    public void setMetrics(IGenerationMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    /*-********************************************-*
+     *  METRICS
+     *-********************************************-*/
+
+    public CacheStats getStats() {
+        return cache.stats();
+    }
+
+    public long getHitCount() {
+        return cache.stats().hitCount();
+    }
+
+    public long getMissCount() {
+        return cache.stats().missCount();
+    }
+
+    public double getHitRate() {
+        return cache.stats().hitRate();
+    }
+
+    public long size() {
+        return cache.size();
+    }
+
+    @Override
+    public String toString() {
+        return "TemplateAnalysisCache{hits=" + getHitCount() + ", misses=" + getMissCount() + ", size=" + size() + "}";
+    }
+}
@@ -0,0 +1,24 @@
+package be.thomaswinters.similarreplacer;
+
+import be.thomaswinters.wordcounter.WordCounter;
+
+/**
+ * Exposes a {@link WordCounter} as word frequencies
+ */
+public class WordCounterFrequencies implements IWordFrequencies {
+    private final WordCounter wc;
+
+    public WordCounterFrequencies(WordCounter wc) {
+        this.wc = wc;
+    }
+
+    @Override
+    public int getCount(String word) {
+        return wc.getCount(word);
+    }
+
+    @Override
+    public int getQuartileCount(double quartile) {
+        return wc.getQuartileCount(quartile);
+    }
+}
@@ -0,0 +1,210 @@
+package be.thomaswinters.similarreplacer;
+
+import be.thomaswinters.wordcounter.WordCounter;
+
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Mutable counts of the words of a corpus, which can be updated when lines are added to or removed from the corpus.
+ * The counts start from the word frequencies the corpus was counted with, and only the counts of the words of the
+ * changed lines are stored separately, so an update takes time in the number of changed lines instead of in the size
+ * of the corpus. The changed lines are counted using a {@link WordCounter}, just like the initial frequencies, and
+ * only the counts of their tokens are kept.
+ * <p>
+ * The quartile counts follow the changes using a histogram of the number of words having every count: every
+ * percentile shifts by as much as the same percentile of the histogram did since the counts started, so the quartile
+ * counts stay the same until the corpus changes. Not thread-safe: snapshots for readers are taken using
+ * {@link #toFrequencies()}.
+ */
+class WordCounts {
+    /**
+     * Minimal number of changed words before they are merged into a new base table
+     */
+    private static final int MIN_CHANGED_WORDS_TO_MERGE = 1024;
+
+    private final SimilarWordReplacer tokenizer;
+
+    /**
+     * Counts of all words that did not change since the last merge
+     */
+    private WordFrequencyTable base;
+    private final Map<String, Integer> changedCounts = new HashMap<>();
+
+    /**
+     * Number of words having every count, for all counts above 0
+     */
+    private final TreeMap<Integer, Integer> numberOfWordsByCount = new TreeMap<>();
+    private int numberOfWords;
+    /**
+     * Percentile counts of the histogram at the time the base table was created
+     */
+    private int[] basePercentilesOfHistogram;
+
+    /**
+     * @param base      counts to start from
+     * @param tokenizer word replacer used to tokenize the changed lines into words
+     */
+    WordCounts(WordFrequencyTable base, SimilarWordReplacer tokenizer) {
+        this.tokenizer = tokenizer;
+        this.base = base;
+        IntBuffer counts = base.getCounts();
+        for (int id = 0; id < counts.limit(); id++) {
+            addToHistogram(counts.get(id), 1);
+        }
+        this.basePercentilesOfHistogram = getPercentilesOfHistogram();
+    }
+
+    /*-********************************************-*
+     *  UPDATING
+     *-********************************************-*/
+
+    void addLines(List<String> lines) {
+        updateLines(lines, 1);
+    }
+
+    void removeLines(List<String> lines) {
+        updateLines(lines, -1);
+    }
+
+    private void updateLines(List<String> lines, int sign) {
+        if (lines.isEmpty()) {
+            return;
+        }
+        WordCounter lineCounts = new WordCounter(lines);
+        Set<String> words = new LinkedHashSet<>();
+        DynamicTemplateGenerator.addVocabulary(tokenizer, lines, words);
+        for (String word : words) {
+            int delta = lineCounts.getCount(word);
+            if (delta != 0) {
+                setCount(word, Math.max(0, getCount(word) + sign * delta));
+            }
+        }
+    }
+
+    private void setCount(String word, int count) {
+        int oldCount = getCount(word);
+        if (oldCount != count) {
+            addToHistogram(oldCount, -1);
+            addToHistogram(count, 1);
+            changedCounts.put(word, count);
+        }
+    }
+
+    int getCount(String word) {
+        Integer count = changedCounts.get(word);
+        return count != null ? count : base.getCount(word);
+    }
+
+    /*-********************************************-*
+     *  PERCENTILES
+     *-********************************************-*/
+
+    private void addToHistogram(int count, int delta) {
+        if (count > 0) {
+            numberOfWords += delta;
+            numberOfWordsByCount.merge(count, delta, (count1, count2) -> count1 + count2 == 0 ? null : count1 + count2);
+        }
+    }
+
+    /**
+     * @return the count of every percentile of the ascendingly sorted counts of all words, calculated in the same
+     * way as {@link WordFrequencyTable#fromCounts(List, int[])} does, but in one pass over the distinct counts
+     */
+    private int[] getPercentilesOfHistogram() {
+        int[] percentileCounts = new int[WordFrequencyTable.NUMBER_OF_PERCENTILES];
+        int percentile = 0;
+        int wordsUpToCount = 0;
+        for (Map.Entry<Integer, Integer> entry : numberOfWordsByCount.entrySet()) {
+            wordsUpToCount += entry.getValue();
+            while (percentile < percentileCounts.length
+                    && WordFrequencyTable.getPercentileIndex(percentile, numberOfWords) < wordsUpToCount) {
+                percentileCounts[percentile++] = entry.getKey();
+            }
+        }
+        return percentileCounts;
+    }
+
+    private int[] getPercentileCounts() {
+        IntBuffer basePercentileCounts = base.getPercentileCounts();
+        int[] percentilesOfHistogram = getPercentilesOfHistogram();
+        int[] percentileCounts = new int[percentilesOfHistogram.length];
+        for (int i = 0; i < percentileCounts.length; i++) {
+            percentileCounts[i] = Math.max(0,
+                    basePercentileCounts.get(i) + percentilesOfHistogram[i] - basePercentilesOfHistogram[i]);
+        }
+        return percentileCounts;
+    }
+
+    /*-********************************************-*
+     *  SNAPSHOTS
+     *-********************************************-*/
+
+    /**
+     * @return an immutable copy of the current counts, which only copies the changed counts. These are merged into a
+     * new base table once there are more of them than the square root of the vocabulary size (times a constant), such
+     * that the merges, which take time in the size of the vocabulary, are spread over many updates.
+     */
+    IWordFrequencies toFrequencies() {
+        if (changedCounts.size() > Math.max(MIN_CHANGED_WORDS_TO_MERGE, 8 * Math.sqrt(base.getVocabularySize()))) {
+            merge();
+        }
+        return new ChangedWordFrequencies(base,
+                changedCounts.isEmpty() ? Collections.emptyMap() : new HashMap<>(changedCounts),
+                getPercentileCounts());
+    }
+
+    private void merge() {
+        List<String> vocabulary = new ArrayList<>(base.getVocabulary());
+        int[] counts = new int[vocabulary.size() + changedCounts.size()];
+        base.getCounts().get(counts, 0, vocabulary.size());
+        for (Map.Entry<String, Integer> entry : changedCounts.entrySet()) {
+            int id = base.getId(entry.getKey());
+            if (id < 0) {
+                id = vocabulary.size();
+                vocabulary.add(entry.getKey());
+            }
+            counts[id] = entry.getValue();
+        }
+        int[] percentileCounts = getPercentileCounts();
+        base = new WordFrequencyTable(vocabulary, IntBuffer.wrap(Arrays.copyOf(counts, vocabulary.size())),
+                IntBuffer.wrap(WordFrequencyTable.createHashSlots(vocabulary)), IntBuffer.wrap(percentileCounts));
+        basePercentilesOfHistogram = getPercentilesOfHistogram();
+        changedCounts.clear();
+    }
+
+    /**
+     * Counts of a base table, of which some words have a different count
+     */
+    private static final class ChangedWordFrequencies implements IWordFrequencies {
+        private final WordFrequencyTable base;
+        private final Map<String, Integer> changedCounts;
+        private final int[] percentileCounts;
+
+        private ChangedWordFrequencies(WordFrequencyTable base, Map<String, Integer> changedCounts,
+                                       int[] percentileCounts) {
+            this.base = base;
+            this.changedCounts = changedCounts;
+            this.percentileCounts = percentileCounts;
+        }
+
+        @Override
+        public int getCount(String word) {
+            Integer count = changedCounts.get(word);
+            return count != null ? count : base.getCount(word);
+        }
+
+        @Override
+        public int getQuartileCount(double quartile) {
+            return percentileCounts[WordFrequencyTable.toPercentile(quartile)];
+        }
+    }
+}
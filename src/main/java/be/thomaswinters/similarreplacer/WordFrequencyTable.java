@@ -0,0 +1,178 @@
+package be.thomaswinters.similarreplacer;
+
+import be.thomaswinters.wordcounter.WordCounter;
+
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Word frequencies with the vocabulary interned to int ids and the counts stored in a primitive array. Words are
+ * looked up using an open addressing hash table of ids instead of a map of boxed values, and the quartile counts are
+ * calculated once. All arrays are {@link IntBuffer}s, such that a table can also be read directly from a
+ * memory-mapped {@link TaggedCorpusCache} file.
+ */
+public class WordFrequencyTable implements IWordFrequencies {
+    static final int NUMBER_OF_PERCENTILES = 100;
+
+    private final List<String> vocabulary;
+    private final IntBuffer counts;
+    private final IntBuffer hashSlots;
+    private final IntBuffer percentileCounts;
+
+    /**
+     * @param vocabulary       all words that have a count
+     * @param counts           count of every word of the vocabulary
+     * @param hashSlots        power of two sized table containing the vocabulary id + 1 of a word, or 0 if empty
+     * @param percentileCounts the quartile count of every percent, from 0 up to and including 99
+     */
+    WordFrequencyTable(List<String> vocabulary, IntBuffer counts, IntBuffer hashSlots, IntBuffer percentileCounts) {
+        this.vocabulary = vocabulary;
+        this.counts = counts;
+        this.hashSlots = hashSlots;
+        this.percentileCounts = percentileCounts;
+    }
+
+    /**
+     * Copies the counts of the given words from the word counter, such that the word counter itself can be discarded
+     *
+     * @param wc         word counter to take the counts and quartiles from
+     * @param vocabulary distinct words to store the counts of; other words get a count of 0
+     */
+    public static WordFrequencyTable fromWordCounter(WordCounter wc, Collection<String> vocabulary) {
+        return fromFrequencies(new WordCounterFrequencies(wc), vocabulary);
+    }
+
+    /**
+     * Copies the counts of the given words and the quartile counts from the given word frequencies
+     *
+     * @param vocabulary distinct words to store the counts of; other words get a count of 0
+     */
+    static WordFrequencyTable fromFrequencies(IWordFrequencies wc, Collection<String> vocabulary) {
+        List<String> words = new ArrayList<>(vocabulary);
+        int[] counts = words.stream().mapToInt(wc::getCount).toArray();
+        int[] percentileCounts = new int[NUMBER_OF_PERCENTILES];
+        for (int i = 0; i < NUMBER_OF_PERCENTILES; i++) {
+            percentileCounts[i] = wc.getQuartileCount(i / (double) NUMBER_OF_PERCENTILES);
+        }
+        return new WordFrequencyTable(words, IntBuffer.wrap(counts), IntBuffer.wrap(createHashSlots(words)),
+                IntBuffer.wrap(percentileCounts));
+    }
+
+    /**
+     * Creates a table from counts calculated elsewhere. The quartile count of a quartile q is the count at index
+     * q * (n - 1) of the ascendingly sorted counts of the n words. Words with a count of 0 are not part of the
+     * quartiles.
+     *
+     * @param vocabulary distinct words
+     * @param counts     count of every word of the vocabulary
+     */
+    public static WordFrequencyTable fromCounts(List<String> vocabulary, int[] counts) {
+        int[] sorted = Arrays.stream(counts).filter(count -> count > 0).sorted().toArray();
+        int[] percentileCounts = new int[NUMBER_OF_PERCENTILES];
+        if (sorted.length > 0) {
+            for (int i = 0; i < NUMBER_OF_PERCENTILES; i++) {
+                percentileCounts[i] = sorted[getPercentileIndex(i, sorted.length)];
+            }
+        }
+        List<String> words = new ArrayList<>(vocabulary);
+        return new WordFrequencyTable(words, IntBuffer.wrap(counts.clone()), IntBuffer.wrap(createHashSlots(words)),
+                IntBuffer.wrap(percentileCounts));
+    }
+
+    /**
+     * @return the index of the count of the given percentile in the ascendingly sorted counts of the given number of
+     * words
+     */
+    static int getPercentileIndex(int percentile, int numberOfWords) {
+        return (int) (percentile / (double) NUMBER_OF_PERCENTILES * (numberOfWords - 1));
+    }
+
+    /*-********************************************-*
+     *  ACCESS
+     *-********************************************-*/
+
+    /**
+     * @return the id of the given word, or -1 if it is not part of the vocabulary
+     */
+    public int getId(String word) {
+        int mask = hashSlots.limit() - 1;
+        for (int slot = hash(word) & mask; hashSlots.get(slot) != 0; slot = (slot + 1) & mask) {
+            int id = hashSlots.get(slot) - 1;
+            if (vocabulary.get(id).equals(word)) {
+                return id;
+            }
+        }
+        return -1;
+    }
+
+    public int getCount(int id) {
+        return counts.get(id);
+    }
+
+    @Override
+    public int getCount(String word) {
+        int id = getId(word);
+        return id < 0 ? 0 : counts.get(id);
+    }
+
+    /**
+     * Quartile counts are stored with a resolution of one percent, so the given quartile is rounded to that.
+     */
+    @Override
+    public int getQuartileCount(double quartile) {
+        return percentileCounts.get(toPercentile(quartile));
+    }
+
+    /**
+     * @return the percentile of which the count is stored for the given quartile
+     */
+    static int toPercentile(double quartile) {
+        int percentile = (int) Math.round(quartile * NUMBER_OF_PERCENTILES);
+        return Math.max(0, Math.min(NUMBER_OF_PERCENTILES - 1, percentile));
+    }
+
+    public int getVocabularySize() {
+        return vocabulary.size();
+    }
+
+    List<String> getVocabulary() {
+        return vocabulary;
+    }
+
+    IntBuffer getCounts() {
+        return counts.duplicate();
+    }
+
+    IntBuffer getHashSlots() {
+        return hashSlots.duplicate();
+    }
+
+    IntBuffer getPercentileCounts() {
+        return percentileCounts.duplicate();
+    }
+
+    /*-********************************************-*
+     *  HASH TABLE
+     *-********************************************-*/
+
+    static int hash(String word) {
+        int h = word.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    static int[] createHashSlots(List<String> vocabulary) {
+        int size = Integer.highestOneBit(Math.max(2, vocabulary.size() * 2) - 1) << 1;
+        int[] slots = new int[size];
+        for (int id = 0; id < vocabulary.size(); id++) {
+            int slot = hash(vocabulary.get(id)) & (size - 1);
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & (size - 1);
+            }
+            slots[slot] = id + 1;
+        }
+        return slots;
+    }
+}
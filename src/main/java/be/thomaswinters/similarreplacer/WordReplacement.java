@@ -0,0 +1,55 @@
+package be.thomaswinters.similarreplacer;
+
+import be.thomaswinters.replacement.Replacer;
+
+import java.util.Objects;
+
+/**
+ * A word of a template together with the word picked to replace it
+ */
+public class WordReplacement {
+    private final String word;
+    private final String replacement;
+
+    public WordReplacement(String word, String replacement) {
+        this.word = word;
+        this.replacement = replacement;
+    }
+
+    public String getWord() {
+        return word;
+    }
+
+    public String getReplacement() {
+        return replacement;
+    }
+
+    /**
+     * @return a replacer replacing whole words only
+     */
+    public Replacer toReplacer() {
+        return new Replacer(word, replacement, false, true);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof WordReplacement)) {
+            return false;
+        }
+        WordReplacement that = (WordReplacement) o;
+        return word.equals(that.word) && replacement.equals(that.replacement);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(word, replacement);
+    }
+
+    @Override
+    public String toString() {
+        return word + " -> " + replacement;
+    }
+}
@@ -0,0 +1,107 @@
+package be.thomaswinters.similarreplacer;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class AliasTableTest {
+    private static final int DRAWS = 200_000;
+    private static final double TOLERANCE = 0.01;
+
+    private final AliasTable table = new AliasTable(new String[]{"kat", "hond", "vogel", "vis"},
+            new double[]{1, 2, 7, 0});
+
+    @Test
+    void samplesProportionallyToTheWeights() {
+        Map<String, Integer> counts = sample(null);
+
+        assertEquals(0.1, counts.getOrDefault("kat", 0) / (double) DRAWS, TOLERANCE);
+        assertEquals(0.2, counts.getOrDefault("hond", 0) / (double) DRAWS, TOLERANCE);
+        assertEquals(0.7, counts.getOrDefault("vogel", 0) / (double) DRAWS, TOLERANCE);
+        assertFalse(counts.containsKey("vis"));
+        assertEquals(0.7, table.getProbability("vogel"), 1e-12);
+        assertEquals(0, table.getProbability("vis"));
+    }
+
+    @Test
+    void excludingAWordKeepsTheRelativeProportionsOfTheOthers() {
+        Map<String, Integer> counts = sample("hond");
+
+        assertFalse(counts.containsKey("hond"));
+        assertEquals(1 / 8d, counts.getOrDefault("kat", 0) / (double) DRAWS, TOLERANCE);
+        assertEquals(7 / 8d, counts.getOrDefault("vogel", 0) / (double) DRAWS, TOLERANCE);
+    }
+
+    @Test
+    void excludingTheDominantWordSamplesFromATableWithoutIt() {
+        // The excluded word has a probability above one half, so it is not drawn and rejected
+        Map<String, Integer> counts = sample("vogel");
+
+        assertFalse(counts.containsKey("vogel"));
+        assertEquals(1 / 3d, counts.getOrDefault("kat", 0) / (double) DRAWS, TOLERANCE);
+        assertEquals(2 / 3d, counts.getOrDefault("hond", 0) / (double) DRAWS, TOLERANCE);
+    }
+
+    @Test
+    void excludingAWordThatIsNotInTheTableSamplesAllWords() {
+        assertEquals(sample(null), sample("paard"));
+    }
+
+    @Test
+    void returnsNullWhenNoWordIsLeft() {
+        AliasTable single = new AliasTable(new String[]{"kat"}, new double[]{3});
+        AliasTable empty = new AliasTable(new String[0], new double[0]);
+
+        assertEquals("kat", single.sample(new Random(1)));
+        assertNull(single.sample(new Random(1), "kat"));
+        assertNull(empty.sample(new Random(1)));
+    }
+
+    @Test
+    void pickingFromABagWithATemperatureFlattensTheCounts() {
+        List<String> words = Arrays.asList("kat", "vogel");
+        CompactBag bag = new CompactBag(new CompactBag.Vocabulary() {
+            @Override
+            public int getId(String word) {
+                return words.indexOf(word);
+            }
+
+            @Override
+            public String getWord(int id) {
+                return words.get(id);
+            }
+        });
+        bag.add(0);
+        for (int i = 0; i < 4; i++) {
+            bag.add(1);
+        }
+
+        // A temperature of 2 takes the square root of the relative counts 1/4 and 1, so "kat" gets 0.5 / 1.5
+        RandomReplacementPicker picker = new RandomReplacementPicker(2);
+        Random random = new Random(42);
+        int kat = 0;
+        for (int i = 0; i < DRAWS / 10; i++) {
+            if (picker.pickReplacement("hond", bag, random).equals("kat")) {
+                kat++;
+            }
+        }
+        assertEquals(1 / 3d, kat / (double) (DRAWS / 10), TOLERANCE);
+    }
+
+    private Map<String, Integer> sample(String excluded) {
+        Random random = new Random(42);
+        Map<String, Integer> counts = new HashMap<>();
+        for (int i = 0; i < DRAWS; i++) {
+            counts.merge(table.sample(random, excluded), 1, Integer::sum);
+        }
+        return counts;
+    }
+}
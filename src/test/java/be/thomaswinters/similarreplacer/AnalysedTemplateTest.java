@@ -0,0 +1,49 @@
+package be.thomaswinters.similarreplacer;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class AnalysedTemplateTest {
+
+    @Test
+    void replacesWordsInEverySentenceOfATemplate() {
+        AnalysedTemplate template = new SimilarWordReplacer().analyseTemplate(
+                "De kat eet een appel. Mijn hond slaapt  op de zetel!\nDe kat droomt.");
+
+        String replaced = template.replace(Arrays.asList(
+                new WordReplacement("kat", "vogel"),
+                new WordReplacement("zetel", "bank"),
+                new WordReplacement("droomt", "zingt")));
+
+        assertEquals("De vogel eet een appel. Mijn hond slaapt  op de bank!\nDe vogel zingt.", replaced);
+    }
+
+    @Test
+    void usesTheFirstReplacementOfAWordAndDoesNotReplaceReplacementsAgain() {
+        AnalysedTemplate template = new SimilarWordReplacer().analyseTemplate(
+                "De kat ziet de hond. De hond ziet de kat.");
+
+        String replaced = template.replace(Arrays.asList(
+                new WordReplacement("kat", "hond"),
+                new WordReplacement("hond", "vis"),
+                new WordReplacement("kat", "muis")));
+
+        assertEquals("De hond ziet de vis. De vis ziet de hond.", replaced);
+    }
+
+    @Test
+    void replacesWholeWordsWhenThePositionsDoNotMatchTheTemplate() {
+        // Positions as if the sentences were not separated by a space
+        AnalysedTemplate template = new AnalysedTemplate("De kat eet. Mijn hond slaapt.", Collections.emptyList(),
+                new String[]{"De", "kat", "eet", ".", "Mijn", "hond", "slaapt", "."},
+                new int[]{0, 3, 7, 10, 11, 16, 21, 27});
+
+        String replaced = template.replace(Collections.singletonList(new WordReplacement("hond", "vogel")));
+
+        assertEquals("De kat eet. Mijn vogel slaapt.", replaced);
+    }
+}
@@ -0,0 +1,56 @@
+package be.thomaswinters.similarreplacer;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BloomNoveltyFilterTest {
+
+    @Test
+    void neverAcceptsACorpusLine() {
+        List<String> corpus = createLines("De kat eet peer ", 1000);
+        BloomNoveltyFilter filter = new BloomNoveltyFilter(corpus, 0.01);
+
+        for (String line : corpus) {
+            assertFalse(filter.isNovel(line), line);
+        }
+    }
+
+    @Test
+    void acceptsMostNovelLines() {
+        BloomNoveltyFilter filter = new BloomNoveltyFilter(createLines("De kat eet peer ", 1000), 0.01);
+
+        List<String> novelLines = createLines("Een hond slaapt in tuin ", 1000);
+        long rejected = novelLines.stream().filter(line -> !filter.isNovel(line)).count();
+        // Expects 10 false positives, so 40 is very unlikely
+        assertTrue(rejected < 40, rejected + " novel lines rejected");
+    }
+
+    @Test
+    void readsTheCorpusOnlyOnceWhenGivenItsSize() {
+        List<String> corpus = createLines("De kat eet peer ", 100);
+        int[] iterations = new int[1];
+        Iterable<String> countingCorpus = () -> {
+            iterations[0]++;
+            return corpus.iterator();
+        };
+
+        BloomNoveltyFilter filter = new BloomNoveltyFilter(countingCorpus, corpus.size(), 0.01);
+
+        assertEquals(1, iterations[0]);
+        assertFalse(filter.isNovel(corpus.get(42)));
+    }
+
+    private static List<String> createLines(String prefix, int numberOfLines) {
+        List<String> lines = new ArrayList<>(numberOfLines);
+        for (int i = 0; i < numberOfLines; i++) {
+            lines.add(prefix + i + ".");
+        }
+        return lines;
+    }
+}
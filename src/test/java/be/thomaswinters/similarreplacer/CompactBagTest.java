@@ -0,0 +1,111 @@
+package be.thomaswinters.similarreplacer;
+
+import be.thomaswinters.markov.model.data.bags.Bag;
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.Multiset;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CompactBagTest {
+    private static final List<String> WORDS = Arrays.asList(
+            "hond", "kat", "vogel", "koe", "paard", "vis", "muis", "geit", "schaap");
+    private static final CompactBag.Vocabulary VOCABULARY = new CompactBag.Vocabulary() {
+        @Override
+        public int getId(String word) {
+            return WORDS.indexOf(word);
+        }
+
+        @Override
+        public String getWord(int id) {
+            return WORDS.get(id);
+        }
+    };
+
+    @Test
+    void keepsTheCountsOfAddedAndRemovedWords() {
+        CompactBag bag = new CompactBag(VOCABULARY);
+        Multiset<String> expected = HashMultiset.create();
+        Random random = new Random(42);
+        for (int step = 0; step < 2000; step++) {
+            int wordId = random.nextInt(WORDS.size());
+            String word = WORDS.get(wordId);
+            if (random.nextInt(5) < 3) {
+                bag.add(wordId);
+                expected.add(word);
+            } else {
+                assertEquals(expected.remove(word), bag.remove(wordId), word);
+            }
+            assertSameElements(expected, bag);
+        }
+    }
+
+    @Test
+    void keepsAllOccurrencesOfAWordNextToEachOther() {
+        CompactBag bag = new CompactBag(VOCABULARY);
+        addAll(bag, "hond", "kat", "hond", "vogel", "kat", "hond");
+        bag.remove(WORDS.indexOf("kat"));
+        bag.remove(WORDS.indexOf("kat"));
+        // The freed slot of "kat" is reused by the next new word
+        bag.add(WORDS.indexOf("koe"));
+
+        String[] elements = new String[bag.size()];
+        for (int i = 0; i < elements.length; i++) {
+            elements[i] = bag.get(i);
+        }
+        assertEquals("[hond, hond, hond, koe, vogel]", Arrays.toString(elements));
+    }
+
+    @Test
+    void excludesEveryOccurrenceOfAWord() {
+        CompactBag bag = new CompactBag(VOCABULARY);
+        addAll(bag, "hond", "kat", "hond", "vogel", "kat", "hond");
+        Bag<String> withoutHond = bag.without("hond");
+
+        assertEquals(3, withoutHond.getAmountOfElements());
+        assertEquals(2, withoutHond.getAmountOfUniqueElements());
+        for (int i = 0; i < withoutHond.getAmountOfElements(); i++) {
+            assertNotEquals("hond", withoutHond.get(i));
+        }
+        assertSame(bag, bag.without("koe"));
+    }
+
+    @Test
+    void isEmptyAfterRemovingEveryWord() {
+        CompactBag bag = new CompactBag(VOCABULARY);
+        addAll(bag, "hond", "hond");
+        assertTrue(bag.remove(WORDS.indexOf("hond")));
+        assertTrue(bag.remove(WORDS.indexOf("hond")));
+        assertFalse(bag.remove(WORDS.indexOf("hond")));
+
+        assertTrue(bag.isEmpty());
+        assertEquals(0, bag.getAmountOfUniqueElements());
+    }
+
+    private static void addAll(CompactBag bag, String... words) {
+        for (String word : words) {
+            bag.add(WORDS.indexOf(word));
+        }
+    }
+
+    private static void assertSameElements(Multiset<String> expected, CompactBag bag) {
+        assertEquals(expected.size(), bag.getAmountOfElements());
+        assertEquals(expected.elementSet().size(), bag.getAmountOfUniqueElements());
+        Multiset<String> elements = HashMultiset.create();
+        for (int i = 0; i < bag.getAmountOfElements(); i++) {
+            elements.add(bag.get(i));
+        }
+        assertEquals(expected, elements);
+        for (String word : WORDS) {
+            assertEquals(expected.count(word), bag.getCount(word), word);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package be.thomaswinters.similarreplacer;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.ObjIntConsumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ContextIndexTest {
+    private static final List<String> FIRST_LINES = Arrays.asList(
+            "De kat eet een peer.",
+            "Een hond slaapt in de tuin.");
+    private static final List<String> SECOND_LINES = Arrays.asList(
+            "De vogel eet een worm en de kat eet een muis.",
+            "Mijn buurman slaapt op de bank.");
+    private static final List<String> OTHER_LINES = Arrays.asList(
+            "De koe eet gras in de wei.");
+
+    private final SimilarWordReplacer tagger = new SimilarWordReplacer();
+
+    @Test
+    void appendingLinesEqualsBuildingTheWholeIndex() {
+        ContextIndex appended = ContextIndex.build(FIRST_LINES, tagger).withLines(SECOND_LINES, tagger);
+
+        assertSameIndex(ContextIndex.build(concat(FIRST_LINES, SECOND_LINES), tagger), appended);
+    }
+
+    @Test
+    void appendingToAnEarlierIndexDoesNotChangeLaterIndices() {
+        ContextIndex first = ContextIndex.build(FIRST_LINES, tagger).withLines(SECOND_LINES.subList(0, 1), tagger);
+        ContextIndex second = first.withLines(SECOND_LINES.subList(1, 2), tagger);
+        ContextIndex other = first.withLines(OTHER_LINES, tagger);
+
+        assertSameIndex(ContextIndex.build(concat(FIRST_LINES, SECOND_LINES), tagger), second);
+        assertSameIndex(ContextIndex.build(concat(FIRST_LINES, SECOND_LINES.subList(0, 1), OTHER_LINES), tagger),
+                other);
+        assertEquals(-1, first.getWordId("buurman"));
+        assertEquals(-1, second.getWordId("koe"));
+    }
+
+    @Test
+    void storesTheFlatArraysOfAppendedLines() {
+        ContextIndex appended = ContextIndex.build(FIRST_LINES, tagger).withLines(SECOND_LINES, tagger);
+        ContextIndex copy = new ContextIndex(appended.getTagSets(), appended.getWords(), appended.getLineOffsets(),
+                appended.getEntryTagSets(), appended.getEntryWords());
+
+        assertSameIndex(appended, copy);
+    }
+
+    @Test
+    void failingToTagALineDoesNotAddAnyOfItsWords() {
+        // Fails after passing the first word of the line
+        SimilarWordReplacer failingTagger = new SimilarWordReplacer() {
+            @Override
+            public void forEachContextWord(String contextLine, ObjIntConsumer<String> consumer) throws IOException {
+                super.forEachContextWord(contextLine, (word, tagSetId) -> {
+                    consumer.accept(word, tagSetId);
+                    throw new IllegalStateException("Could not tag " + contextLine);
+                });
+            }
+        };
+        ContextIndex first = ContextIndex.build(FIRST_LINES, tagger).withLines(SECOND_LINES.subList(0, 1), tagger);
+
+        assertThrows(IllegalStateException.class, () -> first.withLines(OTHER_LINES, failingTagger));
+        ContextIndex second = first.withLines(SECOND_LINES.subList(1, 2), tagger);
+
+        assertSameIndex(ContextIndex.build(concat(FIRST_LINES, SECOND_LINES), tagger), second);
+        assertEquals(-1, second.getWordId("koe"));
+    }
+
+    @SafeVarargs
+    private static List<String> concat(List<String>... parts) {
+        List<String> lines = new ArrayList<>();
+        for (List<String> part : parts) {
+            lines.addAll(part);
+        }
+        return lines;
+    }
+
+    private static void assertSameIndex(ContextIndex expected, ContextIndex actual) {
+        assertEquals(expected.getNumberOfLines(), actual.getNumberOfLines());
+        for (int line = 0; line < expected.getNumberOfLines(); line++) {
+            List<String> expectedEntries = getEntries(expected, line);
+            assertEquals(expectedEntries, getEntries(actual, line), "line " + line);
+            for (String entry : expectedEntries) {
+                String word = entry.substring(0, entry.indexOf('/'));
+                assertEquals(word, actual.getWord(actual.getWordId(word)));
+                int tagSetId = Integer.parseInt(entry.substring(entry.indexOf('/') + 1));
+                assertEquals(expected.getSampleWords(tagSetId), actual.getSampleWords(tagSetId), entry);
+            }
+        }
+    }
+
+    private static List<String> getEntries(ContextIndex index, int line) {
+        List<String> entries = new ArrayList<>();
+        index.forEachContextWord(line, (word, tagSetId) -> entries.add(word + "/" + tagSetId));
+        return entries;
+    }
+}
@@ -0,0 +1,25 @@
+package be.thomaswinters.similarreplacer;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ExactNoveltyFilterTest {
+    private static final List<String> CORPUS = Arrays.asList(
+            "De kat eet een peer.",
+            "Een hond slaapt in de tuin.");
+
+    @Test
+    void rejectsOnlyExactCopiesOfCorpusLines() {
+        ExactNoveltyFilter filter = new ExactNoveltyFilter(CORPUS);
+
+        assertFalse(filter.isNovel("De kat eet een peer."));
+        assertFalse(filter.isNovel("Een hond slaapt in de tuin."));
+        assertTrue(filter.isNovel("De kat eet een peer"));
+        assertTrue(filter.isNovel("De hond eet een peer."));
+    }
+}
@@ -0,0 +1,91 @@
+package be.thomaswinters.similarreplacer;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class FrequencySortedWordsTest {
+
+    @Test
+    void scanningFindsTheSameClosestWordAsTheSortedWords() {
+        Random random = new Random(42);
+        for (int bagNumber = 0; bagNumber < 200; bagNumber++) {
+            // Few distinct counts, such that many words are equally close
+            Map<String, Integer> counts = new HashMap<>();
+            List<String> words = new ArrayList<>();
+            for (int i = 0; i < 1 + random.nextInt(12); i++) {
+                String word = "woord" + i;
+                words.add(word);
+                counts.put(word, random.nextInt(6));
+            }
+            IWordFrequencies wc = new MapFrequencies(counts);
+            CompactBag bag = createBag(words, random);
+            FrequencySortedWords sortedWords = new FrequencySortedWords(bag, wc);
+
+            for (int count = -1; count <= 7; count++) {
+                for (String excluded : new String[]{null, words.get(random.nextInt(words.size()))}) {
+                    assertEquals(sortedWords.getClosest(count, excluded),
+                            FrequencySortedWords.findClosest(bag.getDistinctWords(), wc, count, excluded),
+                            "count " + count + " without " + excluded + " in " + bag);
+                }
+            }
+        }
+    }
+
+    @Test
+    void findsNothingWhenOnlyTheExcludedWordIsLeft() {
+        CompactBag bag = createBag(Collections.singletonList("hond"), new Random(42));
+        IWordFrequencies wc = new MapFrequencies(Collections.singletonMap("hond", 3));
+
+        assertNull(new FrequencySortedWords(bag, wc).getClosest(3, "hond"));
+        assertNull(FrequencySortedWords.findClosest(bag.getDistinctWords(), wc, 3, "hond"));
+        assertEquals("hond", FrequencySortedWords.findClosest(bag.getDistinctWords(), wc, 3, null));
+    }
+
+    private static CompactBag createBag(List<String> words, Random random) {
+        CompactBag bag = new CompactBag(new CompactBag.Vocabulary() {
+            @Override
+            public int getId(String word) {
+                return words.indexOf(word);
+            }
+
+            @Override
+            public String getWord(int id) {
+                return words.get(id);
+            }
+        });
+        for (int id = 0; id < words.size(); id++) {
+            int numberOfOccurrences = 1 + random.nextInt(3);
+            for (int occurrence = 0; occurrence < numberOfOccurrences; occurrence++) {
+                bag.add(id);
+            }
+        }
+        return bag;
+    }
+
+    private static class MapFrequencies implements IWordFrequencies {
+        private final Map<String, Integer> counts;
+
+        private MapFrequencies(Map<String, Integer> counts) {
+            this.counts = counts;
+        }
+
+        @Override
+        public int getCount(String word) {
+            return counts.getOrDefault(word, 0);
+        }
+
+        @Override
+        public int getQuartileCount(double quartile) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
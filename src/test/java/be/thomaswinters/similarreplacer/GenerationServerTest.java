@@ -0,0 +1,110 @@
+package be.thomaswinters.similarreplacer;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class GenerationServerTest {
+    private static final List<String> CORPUS = Arrays.asList(
+            "De hond eet een appel.",
+            "Mijn kat slaapt op de zetel.",
+            "De vogel eet een worm.",
+            "Een koe slaapt in de wei.");
+    private static final DynamicTemplateGenerator GENERATOR = new DynamicTemplateGenerator(CORPUS, CORPUS);
+    private static final int QUEUE_CAPACITY = 2;
+
+    private final HttpClient client = HttpClient.newHttpClient();
+    private GenerationServer server;
+
+    @AfterEach
+    void closeServer() {
+        if (server != null) {
+            server.close();
+        }
+    }
+
+    @Test
+    void generatesTheSameLinesForTheSameSeed() throws Exception {
+        startServer(new NovelLineGenerator(GENERATOR, new ExactNoveltyFilter(CORPUS), 20, 2));
+        String body = "{\"templates\": [\"De hond eet een appel.\", \"Een koe slaapt in de wei.\"], \"seed\": 7}";
+
+        HttpResponse<String> first = post(body);
+        HttpResponse<String> second = post(body);
+
+        assertEquals(200, first.statusCode());
+        assertTrue(first.body().startsWith("{\"results\":"), first.body());
+        assertEquals(first.body(), second.body());
+    }
+
+    @Test
+    void rejectsRequestsWithMoreTemplatesThanTheQueueCapacity() throws Exception {
+        startServer(new NovelLineGenerator(GENERATOR, new ExactNoveltyFilter(CORPUS), 20, 2));
+
+        HttpResponse<String> response = post("{\"templates\": [\"a\", \"b\", \"c\"]}");
+
+        assertEquals(413, response.statusCode());
+    }
+
+    @Test
+    void rejectsRequestsWhileTheQueueIsFull() throws Exception {
+        CountDownLatch generating = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        startServer(new NovelLineGenerator(GENERATOR, new ExactNoveltyFilter(CORPUS), 20, 2) {
+            @Override
+            public Result generate(String dynamicTemplate, Random random) {
+                generating.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.generate(dynamicTemplate, random);
+            }
+        });
+
+        // Takes up the whole queue until its templates are generated
+        CompletableFuture<HttpResponse<String>> waiting = client.sendAsync(
+                createRequest("{\"templates\": [\"De hond eet een appel.\", \"De vogel eet een worm.\"]}"),
+                HttpResponse.BodyHandlers.ofString());
+        generating.await();
+        HttpResponse<String> rejected = post("{\"templates\": [\"Mijn kat slaapt op de zetel.\"]}");
+        release.countDown();
+
+        assertEquals(503, rejected.statusCode());
+        assertEquals("1", rejected.headers().firstValue("Retry-After").orElse(null));
+        assertEquals(200, waiting.get().statusCode());
+        assertEquals(200, post("{\"templates\": [\"Mijn kat slaapt op de zetel.\"]}").statusCode());
+    }
+
+    private void startServer(NovelLineGenerator novelLineGenerator) throws IOException {
+        server = new GenerationServer(GENERATOR, novelLineGenerator,
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 2, 8, QUEUE_CAPACITY, 42);
+        server.start();
+    }
+
+    private HttpResponse<String> post(String body) throws IOException, InterruptedException {
+        return client.send(createRequest(body), HttpResponse.BodyHandlers.ofString());
+    }
+
+    private HttpRequest createRequest(String body) {
+        return HttpRequest.newBuilder(URI.create("http://" + server.getAddress().getHostString() + ":"
+                + server.getAddress().getPort() + "/generate"))
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .build();
+    }
+}
@@ -0,0 +1,35 @@
+package be.thomaswinters.similarreplacer;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class IntIntMapTest {
+
+    @Test
+    void behavesLikeAHashMapWhenPuttingAndRemovingCollidingKeys() {
+        IntIntMap map = new IntIntMap();
+        Map<Integer, Integer> expected = new HashMap<>();
+        Random random = new Random(42);
+        for (int step = 0; step < 20000; step++) {
+            // Few distinct keys, including negative ones, such that runs of colliding keys form and shrink again
+            int key = (random.nextInt(64) - 32) * 1024;
+            if (random.nextBoolean()) {
+                int value = random.nextInt(1000);
+                map.put(key, value);
+                expected.put(key, value);
+            } else {
+                map.remove(key);
+                expected.remove(key);
+            }
+            assertEquals(expected.size(), map.size());
+        }
+        for (int key = -32 * 1024; key < 32 * 1024; key += 1024) {
+            assertEquals(expected.getOrDefault(key, -1).intValue(), map.get(key), "key " + key);
+        }
+    }
+}
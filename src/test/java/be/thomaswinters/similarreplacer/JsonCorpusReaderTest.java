@@ -0,0 +1,50 @@
+package be.thomaswinters.similarreplacer;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class JsonCorpusReaderTest {
+    private static final List<String> LINES = Arrays.asList(
+            "De kat eet een peer.",
+            "Hij zei: \"Een hond slaapt, [niet] de kat.\"",
+            "\u00c9\u00e9n vogel eet een worm.");
+
+    @Test
+    void readsAJsonArray() throws IOException {
+        String json = "  [\"De kat eet een peer.\",\n"
+                + "\"Hij zei: \\\"Een hond slaapt, [niet] de kat.\\\"\", \"\\u00c9\\u00e9n vogel eet een worm.\"]";
+
+        assertEquals(LINES, JsonCorpusReader.readAll(new StringReader(json)));
+    }
+
+    @Test
+    void readsJsonLines() throws IOException {
+        String json = "\"De kat eet een peer.\"\n"
+                + "\"Hij zei: \\\"Een hond slaapt, [niet] de kat.\\\"\"\n"
+                + "\"\u00c9\u00e9n vogel eet een worm.\"\n";
+
+        assertEquals(LINES, JsonCorpusReader.readAll(new StringReader(json)));
+    }
+
+    @Test
+    void skipsBlankLinesInJsonLines() throws IOException {
+        String json = "\n  \n\"De kat eet een peer.\"\n\n"
+                + "\"Hij zei: \\\"Een hond slaapt, [niet] de kat.\\\"\"\r\n \t \n"
+                + "\"\u00c9\u00e9n vogel eet een worm.\"";
+
+        assertEquals(LINES, JsonCorpusReader.readAll(new StringReader(json)));
+    }
+
+    @Test
+    void readsAnEmptyCorpus() throws IOException {
+        assertEquals(Collections.emptyList(), JsonCorpusReader.readAll(new StringReader("[ ]")));
+        assertEquals(Collections.emptyList(), JsonCorpusReader.readAll(new StringReader("\n \n")));
+    }
+}
@@ -0,0 +1,55 @@
+package be.thomaswinters.similarreplacer;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class JsonCorpusWriterTest {
+    private static final List<String> LINES = Arrays.asList(
+            "De kat eet een peer.",
+            "Hij zei: \"Een hond slaapt, [niet] de kat.\"\nDaarna niet meer.",
+            "\u00c9\u00e9n vogel eet een worm.");
+
+    @Test
+    void writesLinesThatCanBeReadAgain() throws IOException {
+        for (JsonCorpusWriter.Format format : JsonCorpusWriter.Format.values()) {
+            StringWriter out = new StringWriter();
+            try (JsonCorpusWriter writer = new JsonCorpusWriter(out, format)) {
+                for (String line : LINES) {
+                    writer.write(line);
+                }
+            }
+
+            assertEquals(LINES, JsonCorpusReader.readAll(new StringReader(out.toString())), format.name());
+        }
+    }
+
+    @Test
+    void writesEveryJsonLineCompletelyBeforeClosing() throws IOException {
+        StringWriter out = new StringWriter();
+        JsonCorpusWriter writer = new JsonCorpusWriter(out, JsonCorpusWriter.Format.JSON_LINES);
+        for (int i = 0; i < LINES.size(); i++) {
+            writer.write(LINES.get(i));
+
+            assertEquals(LINES.subList(0, i + 1), JsonCorpusReader.readAll(new StringReader(out.toString())));
+        }
+    }
+
+    @Test
+    void writesTheLinesOfAnUnclosedArrayBeforeClosing() throws IOException {
+        StringWriter out = new StringWriter();
+        JsonCorpusWriter writer = new JsonCorpusWriter(out, JsonCorpusWriter.Format.JSON);
+        for (int i = 0; i < LINES.size(); i++) {
+            writer.write(LINES.get(i));
+
+            // Only the closing bracket is missing when the writer is not closed, e.g. after a crash
+            assertEquals(LINES.subList(0, i + 1), JsonCorpusReader.readAll(new StringReader(out + "\n]")));
+        }
+    }
+}
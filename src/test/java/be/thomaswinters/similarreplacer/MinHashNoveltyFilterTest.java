@@ -0,0 +1,48 @@
+package be.thomaswinters.similarreplacer;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MinHashNoveltyFilterTest {
+    private static final List<String> CORPUS = Arrays.asList(
+            "De kat van de buren eet elke ochtend een grote peer in de tuin.",
+            "Een hond slaapt de hele middag onder de tafel in de keuken.");
+
+    @Test
+    void rejectsCopiesOfCorpusLines() {
+        MinHashNoveltyFilter filter = new MinHashNoveltyFilter(CORPUS, 0.8);
+
+        for (String line : CORPUS) {
+            assertFalse(filter.isNovel(line), line);
+        }
+    }
+
+    @Test
+    void rejectsNearCopiesOfCorpusLines() {
+        MinHashNoveltyFilter filter = new MinHashNoveltyFilter(CORPUS, 0.5);
+
+        assertFalse(filter.isNovel("De kat van de buren eet elke ochtend een grote appel in de tuin."));
+        assertFalse(filter.isNovel("Een hond slaapt de hele middag onder de tafel in de keuken!"));
+    }
+
+    @Test
+    void acceptsTextsThatDifferFromEveryCorpusLine() {
+        MinHashNoveltyFilter filter = new MinHashNoveltyFilter(CORPUS, 0.5);
+
+        assertTrue(filter.isNovel("Mijn buurman fietst op zondag naar de markt."));
+        assertTrue(filter.isNovel("Vogels zingen luid bij het ochtendgloren."));
+    }
+
+    @Test
+    void rejectsLessWithAHigherMaximumSimilarity() {
+        String nearCopy = "De kat van de buren eet elke ochtend een grote appel in de tuin.";
+
+        assertFalse(new MinHashNoveltyFilter(CORPUS, 0.5).isNovel(nearCopy));
+        assertTrue(new MinHashNoveltyFilter(CORPUS, 0.99).isNovel(nearCopy));
+    }
+}
@@ -0,0 +1,59 @@
+package be.thomaswinters.similarreplacer;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.BiFunction;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ParallelBatchGeneratorTest {
+    private static final List<Integer> INPUTS = IntStream.range(0, 200).boxed().collect(Collectors.toList());
+    // Uses a different amount of random numbers for every input, like generating lines does
+    private static final BiFunction<Integer, Random, String> LINE_GENERATOR = (input, random) -> {
+        long value = 0;
+        for (int i = 0; i <= input % 7; i++) {
+            value += random.nextLong();
+        }
+        return input + ":" + value;
+    };
+
+    @Test
+    void generatesTheSameOrderedLinesForTheSameSeedAtAnyParallelism() {
+        List<String> expected = generate(1, 42, INPUTS);
+
+        for (int parallelism : new int[]{2, 4, 8}) {
+            assertEquals(expected, generate(parallelism, 42, INPUTS), "parallelism " + parallelism);
+        }
+        for (int i = 0; i < INPUTS.size(); i++) {
+            assertTrue(expected.get(i).startsWith(INPUTS.get(i) + ":"), expected.get(i));
+        }
+    }
+
+    @Test
+    void generatesDifferentLinesForADifferentSeed() {
+        assertNotEquals(generate(4, 42, INPUTS), generate(4, 43, INPUTS));
+    }
+
+    @Test
+    void generatesTheSameLinesWhenSplittingTheBatch() {
+        try (ParallelBatchGenerator generator = new ParallelBatchGenerator(4, 42)) {
+            List<String> parts = new ArrayList<>(generator.generate(INPUTS.subList(0, 50), 0, LINE_GENERATOR));
+            parts.addAll(generator.generate(INPUTS.subList(50, INPUTS.size()), 50, LINE_GENERATOR));
+
+            assertEquals(generate(1, 42, INPUTS), parts);
+        }
+    }
+
+    private static List<String> generate(int parallelism, long seed, List<Integer> inputs) {
+        try (ParallelBatchGenerator generator = new ParallelBatchGenerator(parallelism, seed)) {
+            return generator.generate(inputs, LINE_GENERATOR);
+        }
+    }
+}
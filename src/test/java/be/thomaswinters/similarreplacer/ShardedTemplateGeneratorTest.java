@@ -0,0 +1,137 @@
+package be.thomaswinters.similarreplacer;
+
+import com.google.gson.Gson;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ShardedTemplateGeneratorTest {
+    private static final List<String> TEMPLATES = Arrays.asList(
+            "De hond eet een appel.",
+            "Mijn kat slaapt op de zetel.");
+    private static final List<String> CONTEXT = Arrays.asList(
+            "De kat eet een peer.",
+            "Een hond slaapt in de tuin.",
+            "De vogel eet een worm.",
+            "Mijn buurman slaapt op de bank.",
+            "De koe eet gras.");
+
+    private Path directory;
+
+    @BeforeEach
+    void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("sharded-template-generator");
+    }
+
+    @AfterEach
+    void deleteDirectory() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+    }
+
+    @Test
+    void partitionsTheContextLinesInConsecutiveShards() {
+        ShardedTemplateGenerator generator = new ShardedTemplateGenerator();
+        List<String> names = generator.addPartitionedShards("part", TEMPLATES, new ArrayList<>(CONTEXT), 2);
+
+        assertEquals(Arrays.asList("part0", "part1"), names);
+        assertEquals(CONTEXT.subList(0, 2), generator.getGenerator("part0").getContextCorpus());
+        assertEquals(CONTEXT.subList(2, 5), generator.getGenerator("part1").getContextCorpus());
+    }
+
+    @Test
+    void partitionsACorpusFileInTheSameShardsAsTheCorpusInMemory() throws IOException {
+        Path templatesFile = writeJsonLines("templates.jsonl", TEMPLATES);
+        Path contextFile = writeJsonLines("context.jsonl", CONTEXT);
+
+        for (int numberOfShards = 1; numberOfShards <= CONTEXT.size() + 1; numberOfShards++) {
+            ShardedTemplateGenerator inMemory = new ShardedTemplateGenerator();
+            ShardedTemplateGenerator fromFile = new ShardedTemplateGenerator();
+            List<String> names = inMemory.addPartitionedShards("part", TEMPLATES, CONTEXT, numberOfShards);
+            assertEquals(names, fromFile.addPartitionedShards("part", templatesFile, contextFile, numberOfShards));
+
+            for (String name : names) {
+                assertEquals(inMemory.getGenerator(name).getContextCorpus(),
+                        fromFile.getGenerator(name).getContextCorpus(), name + " of " + numberOfShards);
+                assertEquals(TEMPLATES, fromFile.getGenerator(name).getTemplateBases());
+            }
+        }
+    }
+
+    @Test
+    void partitionsAJsonArrayFileInTheSameShardsAsTheCorpusInMemory() throws IOException {
+        List<String> context = Arrays.asList(
+                "Hij zei: \"De kat eet, de hond slaapt.\"",
+                "Een [hond] slaapt in de tuin.",
+                "De vogel eet een worm \\ of een rups.",
+                "Mijn buurman slaapt op de bank.");
+        Path templatesFile = writeJsonLines("templates.jsonl", TEMPLATES);
+        Path contextFile = Files.write(directory.resolve("context.json"), Arrays.asList("[",
+                context.stream().map(ShardedTemplateGeneratorTest::toJson).collect(Collectors.joining(",\n")),
+                "]"));
+
+        ShardedTemplateGenerator inMemory = new ShardedTemplateGenerator();
+        ShardedTemplateGenerator fromFile = new ShardedTemplateGenerator();
+        List<String> names = inMemory.addPartitionedShards("part", TEMPLATES, context, 3);
+        fromFile.addPartitionedShards("part", templatesFile, contextFile, 3);
+
+        for (String name : names) {
+            assertEquals(inMemory.getGenerator(name).getContextCorpus(),
+                    fromFile.getGenerator(name).getContextCorpus(), name);
+        }
+    }
+
+    @Test
+    void skipsBlankLinesWhenPartitioningJsonLines() throws IOException {
+        Path templatesFile = writeJsonLines("templates.jsonl", TEMPLATES);
+        Path contextFile = Files.write(directory.resolve("context.jsonl"), Arrays.asList(
+                "", toJson(CONTEXT.get(0)), "  ", toJson(CONTEXT.get(1)), toJson(CONTEXT.get(2)), "",
+                toJson(CONTEXT.get(3)), toJson(CONTEXT.get(4)), ""));
+
+        ShardedTemplateGenerator generator = new ShardedTemplateGenerator();
+        generator.addPartitionedShards("part", templatesFile, contextFile, 2);
+
+        assertEquals(CONTEXT.subList(0, 2), generator.getGenerator("part0").getContextCorpus());
+        assertEquals(CONTEXT.subList(2, 5), generator.getGenerator("part1").getContextCorpus());
+    }
+
+    @Test
+    void partitionsACorpusFileUsingTheCache() throws IOException {
+        Path templatesFile = writeJsonLines("templates.jsonl", TEMPLATES);
+        Path contextFile = writeJsonLines("context.jsonl", CONTEXT);
+        TaggedCorpusCache cache = new TaggedCorpusCache(Files.createDirectory(directory.resolve("cache")));
+
+        ShardedTemplateGenerator generator = new ShardedTemplateGenerator();
+        List<String> names = generator.addPartitionedShards("part", templatesFile, contextFile, 2, cache);
+        generator.activate(names, 2);
+
+        assertEquals(CONTEXT.subList(0, 2), generator.getGenerator("part0").getContextCorpus());
+        assertEquals(CONTEXT.subList(2, 5), generator.getGenerator("part1").getContextCorpus());
+        try (Stream<Path> cacheFiles = Files.list(directory.resolve("cache"))) {
+            assertEquals(2, cacheFiles.count());
+        }
+    }
+
+    private Path writeJsonLines(String fileName, List<String> lines) throws IOException {
+        return Files.write(directory.resolve(fileName), lines.stream()
+                .map(ShardedTemplateGeneratorTest::toJson)
+                .collect(Collectors.toList()));
+    }
+
+    private static String toJson(String line) {
+        return new Gson().toJson(line);
+    }
+}
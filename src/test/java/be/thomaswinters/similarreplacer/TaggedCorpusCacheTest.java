@@ -0,0 +1,98 @@
+package be.thomaswinters.similarreplacer;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class TaggedCorpusCacheTest {
+    private static final List<String> TEMPLATES = Arrays.asList(
+            "De hond eet een appel.",
+            "Mijn kat slaapt op de zetel.");
+    private static final List<String> CONTEXT = Arrays.asList(
+            "De kat eet een peer.",
+            "Een hond slaapt in de tuin.",
+            "De vogel eet een worm en de kat eet een muis.",
+            "Mijn buurman slaapt op de bank.");
+
+    private Path directory;
+
+    @BeforeEach
+    void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("tagged-corpus-cache");
+    }
+
+    @AfterEach
+    void deleteDirectory() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+    }
+
+    @Test
+    void readsTheWordFrequenciesThatWereWritten() throws IOException {
+        ContextIndex index = ContextIndex.build(CONTEXT, new SimilarWordReplacer());
+        WordFrequencyTable expected = DynamicTemplateGenerator.calculateWordFrequencies(TEMPLATES, CONTEXT, index);
+
+        // The first access writes the file, the second one only reads it
+        TaggedCorpusCache cache = new TaggedCorpusCache(directory);
+        cache.get(TEMPLATES, CONTEXT);
+        IWordFrequencies actual = cache.get(TEMPLATES, CONTEXT).getWordFrequencies();
+
+        for (String word : expected.getVocabulary()) {
+            assertEquals(expected.getCount(word), actual.getCount(word), word);
+        }
+        assertEquals(0, actual.getCount("onbestaandwoord"));
+        for (int percentile = 0; percentile < WordFrequencyTable.NUMBER_OF_PERCENTILES; percentile++) {
+            double quartile = percentile / (double) WordFrequencyTable.NUMBER_OF_PERCENTILES;
+            assertEquals(expected.getQuartileCount(quartile), actual.getQuartileCount(quartile), "q" + quartile);
+        }
+    }
+
+    @Test
+    void readsTheContextIndexThatWasWritten() throws IOException {
+        ContextIndex expected = ContextIndex.build(CONTEXT, new SimilarWordReplacer());
+
+        TaggedCorpusCache cache = new TaggedCorpusCache(directory);
+        cache.get(TEMPLATES, CONTEXT);
+        ContextIndex actual = cache.get(TEMPLATES, CONTEXT).getContextIndex();
+
+        assertEquals(expected.getNumberOfLines(), actual.getNumberOfLines());
+        for (int line = 0; line < CONTEXT.size(); line++) {
+            assertEquals(getContextWords(expected, line), getContextWords(actual, line), CONTEXT.get(line));
+        }
+    }
+
+    @Test
+    void looksUpTheWordsOfTheIndexInTheStoredHashSlots() throws IOException {
+        TaggedCorpusCache cache = new TaggedCorpusCache(directory);
+        cache.get(TEMPLATES, CONTEXT);
+        TaggedCorpus taggedCorpus = cache.get(TEMPLATES, CONTEXT);
+        ContextIndex index = taggedCorpus.getContextIndex();
+        WordFrequencyTable wordFrequencies = (WordFrequencyTable) taggedCorpus.getWordFrequencies();
+
+        int numberOfContextWords = index.getWords().size();
+        for (int id = 0; id < wordFrequencies.getVocabularySize(); id++) {
+            String word = wordFrequencies.getVocabulary().get(id);
+            // The words after the words of the index are not context words, e.g. words that only occur in templates
+            assertEquals(id < numberOfContextWords ? id : -1, index.getWordId(word), word);
+        }
+        assertEquals(-1, index.getWordId("onbestaandwoord"));
+    }
+
+    private static List<String> getContextWords(ContextIndex index, int line) {
+        List<String> contextWords = new ArrayList<>();
+        index.forEachContextWord(line, (word, tagSetId) -> contextWords.add(word + "/" + TagSets.get(tagSetId)));
+        return contextWords;
+    }
+}
@@ -0,0 +1,63 @@
+package be.thomaswinters.similarreplacer;
+
+import be.thomaswinters.wordcounter.WordCounter;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class WordCountsTest {
+    private static final List<String> LINES = Arrays.asList(
+            "de kat eet een peer",
+            "een hond slaapt in de tuin",
+            "de vogel eet een worm en de kat eet een muis");
+    private static final List<String> NEW_LINES = Arrays.asList(
+            "mijn buurman slaapt op de bank",
+            "de koe eet gras in de wei",
+            "de kat eet een peer");
+
+    private final SimilarWordReplacer tokenizer = new SimilarWordReplacer();
+
+    @Test
+    void keepsTheFrequenciesItStartsFrom() {
+        WordFrequencyTable frequencies = count(LINES);
+
+        assertSameFrequencies(frequencies, new WordCounts(frequencies, tokenizer).toFrequencies());
+    }
+
+    @Test
+    void countsAddedAndRemovedLines() {
+        WordCounts counts = new WordCounts(count(LINES), tokenizer);
+        counts.addLines(NEW_LINES);
+        List<String> allLines = new ArrayList<>(LINES);
+        allLines.addAll(NEW_LINES);
+        assertSameFrequencies(count(allLines), counts.toFrequencies());
+
+        counts.removeLines(LINES.subList(0, 2));
+        assertSameFrequencies(count(allLines.subList(2, allLines.size())), counts.toFrequencies());
+    }
+
+    private WordFrequencyTable count(List<String> lines) {
+        Set<String> vocabulary = new LinkedHashSet<>();
+        DynamicTemplateGenerator.addVocabulary(tokenizer, lines, vocabulary);
+        return WordFrequencyTable.fromWordCounter(new WordCounter(lines), vocabulary);
+    }
+
+    private void assertSameFrequencies(WordFrequencyTable expected, IWordFrequencies actual) {
+        Set<String> words = new LinkedHashSet<>();
+        DynamicTemplateGenerator.addVocabulary(tokenizer, LINES, words);
+        DynamicTemplateGenerator.addVocabulary(tokenizer, NEW_LINES, words);
+        for (String word : words) {
+            assertEquals(expected.getCount(word), actual.getCount(word), word);
+        }
+        for (int percentile = 0; percentile < WordFrequencyTable.NUMBER_OF_PERCENTILES; percentile++) {
+            double quartile = percentile / (double) WordFrequencyTable.NUMBER_OF_PERCENTILES;
+            assertEquals(expected.getQuartileCount(quartile), actual.getQuartileCount(quartile), "q" + quartile);
+        }
+    }
+}